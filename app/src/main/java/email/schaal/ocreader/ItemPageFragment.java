@@ -21,21 +21,18 @@
 package email.schaal.ocreader;
 
 import android.app.Fragment;
-import android.os.Build;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import email.schaal.ocreader.model.Item;
 import email.schaal.ocreader.view.ArticleWebView;
 
 /**
- * Fragment to display a single feed item using a WebView.
+ * Fragment to display a single feed item using a WebView from the pool of the ItemPagerActivity.
  */
 public class ItemPageFragment extends Fragment {
-    private static final String TAG = ItemPageFragment.class.getName();
-
     public static final String ARG_POSITION = "ARG_POSITION";
 
     private ArticleWebView webView;
@@ -55,8 +52,9 @@ public class ItemPageFragment extends Fragment {
     public void onStart() {
         super.onStart();
 
-        webView.setItem(((ItemPagerActivity) getActivity()).getItemForPosition(getArguments().getInt(ARG_POSITION)));
-
+        ItemPagerActivity activity = (ItemPagerActivity) getActivity();
+        Item item = activity.getItemForPosition(getArguments().getInt(ARG_POSITION));
+        webView.setItem(item, activity.getPrefetcher().getBody(item));
     }
 
     @Override
@@ -75,17 +73,19 @@ public class ItemPageFragment extends Fragment {
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-        View rootView = inflater.inflate(R.layout.fragment_item_pager, container, false);
+        ViewGroup rootView = (ViewGroup) inflater.inflate(R.layout.fragment_item_pager, container, false);
 
-        webView = (ArticleWebView) rootView.findViewById(R.id.webView);
-
-        // Using software rendering to prevent frozen or blank webviews
-        // See https://code.google.com/p/chromium/issues/detail?id=501901
-        if(Build.HARDWARE.equals("qcom") && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-            Log.w(TAG, "Using software rendering");
-            webView.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-        }
+        webView = ((ItemPagerActivity) getActivity()).getWebViewPool().acquire();
+        rootView.addView(webView, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
 
         return rootView;
     }
+
+    @Override
+    public void onDestroyView() {
+        ((ItemPagerActivity) getActivity()).getWebViewPool().release(webView);
+        webView = null;
+
+        super.onDestroyView();
+    }
 }
@@ -40,14 +40,19 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 
-import java.util.WeakHashMap;
+import java.util.Arrays;
 
+import email.schaal.ocreader.database.ItemStateWriter;
 import email.schaal.ocreader.database.Queries;
 import email.schaal.ocreader.model.Item;
 import email.schaal.ocreader.model.TemporaryFeed;
+import email.schaal.ocreader.util.ArticlePrefetcher;
 import email.schaal.ocreader.util.FaviconLoader;
 import email.schaal.ocreader.util.FeedColors;
+import email.schaal.ocreader.util.FrameTimeMonitor;
 import email.schaal.ocreader.view.ProgressFloatingActionButton;
+import email.schaal.ocreader.view.WebViewPool;
+import io.realm.RealmResults;
 import io.realm.Sort;
 
 public class ItemPagerActivity extends RealmActivity {
@@ -60,6 +65,10 @@ public class ItemPagerActivity extends RealmActivity {
     private Sort order;
 
     private TemporaryFeed temporaryFeed;
+    private RealmResults<Item> items;
+    private final ArticlePrefetcher prefetcher = new ArticlePrefetcher();
+    private final ItemStateWriter itemStateWriter = ItemStateWriter.getInstance();
+    private WebViewPool webViewPool;
     private Toolbar toolbar;
     private ProgressFloatingActionButton fab;
 
@@ -90,8 +99,11 @@ public class ItemPagerActivity extends RealmActivity {
             typedArray.recycle();
         }
 
+        webViewPool = new WebViewPool(this);
+
         int position = getIntent().getIntExtra(POSITION, 0);
         temporaryFeed = getRealm().where(TemporaryFeed.class).findFirst();
+        items = Queries.sortItems(temporaryFeed.getItems(), order);
 
         //noinspection ConstantConditions
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
@@ -131,7 +143,49 @@ public class ItemPagerActivity extends RealmActivity {
     }
 
     public Item getItemForPosition(int position) {
-        return temporaryFeed.getItems().sort(Item.PUB_DATE, order).get(position);
+        return items.get(position);
+    }
+
+    public ArticlePrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    public WebViewPool getWebViewPool() {
+        return webViewPool;
+    }
+
+    /**
+     * Prepare the articles around position, nearest first
+     * @param position current position of the pager
+     */
+    private void prefetchAround(int position) {
+        final int count = items.size();
+        long[] ids = new long[2 * ArticlePrefetcher.PREFETCH_DISTANCE + 1];
+        int idCount = 0;
+
+        ids[idCount++] = items.get(position).getId();
+        for(int distance = 1; distance <= ArticlePrefetcher.PREFETCH_DISTANCE; distance++) {
+            if(position + distance < count)
+                ids[idCount++] = items.get(position + distance).getId();
+            if(position - distance >= 0)
+                ids[idCount++] = items.get(position - distance).getId();
+        }
+
+        prefetcher.prefetch(Arrays.copyOf(ids, idCount));
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Write the changes now, so the list shows them when returning to it
+        itemStateWriter.flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        prefetcher.shutdown();
+        super.onDestroy();
+        webViewPool.destroy();
     }
 
     @Override
@@ -147,22 +201,22 @@ public class ItemPagerActivity extends RealmActivity {
 
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
-        menuItemMarkRead.setChecked(!item.isUnread());
+        menuItemMarkRead.setChecked(!itemStateWriter.isUnread(item));
         menuItemMarkRead.setIcon(menuItemMarkRead.isChecked() ? R.drawable.ic_check_box : R.drawable.ic_check_box_outline_blank);
 
-        menuItemMarkStarred.setChecked(item.isStarred());
+        menuItemMarkStarred.setChecked(itemStateWriter.isStarred(item));
         menuItemMarkStarred.setIcon(menuItemMarkStarred.isChecked() ? R.drawable.ic_star : R.drawable.ic_star_outline);
 
         return super.onPrepareOptionsMenu(menu);
     }
 
     private void setItemUnread(boolean unread) {
-        Queries.setItemsUnread(getRealm(), unread, this.item);
+        itemStateWriter.setUnread(this.item, unread);
         invalidateOptionsMenu();
     }
 
     private void setItemStarred(boolean starred) {
-        Queries.setItemsStarred(getRealm(), starred, this.item);
+        itemStateWriter.setStarred(this.item, starred);
         invalidateOptionsMenu();
     }
 
@@ -185,10 +239,10 @@ public class ItemPagerActivity extends RealmActivity {
                 updateResult();
                 return super.onOptionsItemSelected(item);
             case R.id.action_mark_read:
-                setItemUnread(!this.item.isUnread());
+                setItemUnread(!itemStateWriter.isUnread(this.item));
                 return true;
             case R.id.action_mark_starred:
-                setItemStarred(!this.item.isStarred());
+                setItemStarred(!itemStateWriter.isStarred(this.item));
                 return true;
             case R.id.action_share_article:
                 shareArticle();
@@ -199,23 +253,13 @@ public class ItemPagerActivity extends RealmActivity {
     }
 
     private class SectionsPagerAdapter extends FragmentStatePagerAdapter {
-        private final WeakHashMap<Integer, ItemPageFragment> fragments;
-
         public SectionsPagerAdapter(FragmentManager fm) {
             super(fm);
-            fragments = new WeakHashMap<>(getCount());
         }
 
         @Override
         public Fragment getItem(int position) {
-            ItemPageFragment fragment;
-            if(fragments.containsKey(position))
-                fragment = fragments.get(position);
-            else {
-                fragment = ItemPageFragment.newInstance(position);
-                fragments.put(position, fragment);
-            }
-            return fragment;
+            return ItemPageFragment.newInstance(position);
         }
 
         @Override
@@ -260,6 +304,8 @@ public class ItemPagerActivity extends RealmActivity {
 
         private final ArgbEvaluator argbEvaluator = new ArgbEvaluator();
 
+        private final FrameTimeMonitor frameTimeMonitor = BuildConfig.DEBUG ? new FrameTimeMonitor("ItemPager") : null;
+
         private boolean firstRun = true;
         private final FaviconLoader.FeedColorsListener toListener = new FaviconLoader.FeedColorsListener() {
             @Override
@@ -310,6 +356,8 @@ public class ItemPagerActivity extends RealmActivity {
             item = getItemForPosition(position);
             setItemUnread(false);
 
+            prefetchAround(position);
+
             new FaviconLoader.Builder(fab, item.getFeed())
                     .withGenerateFallbackImage(false)
                     .withPlaceholder(R.drawable.ic_open_in_browser)
@@ -328,6 +376,12 @@ public class ItemPagerActivity extends RealmActivity {
 
         @Override
         public void onPageScrollStateChanged(int state) {
+            if(frameTimeMonitor != null) {
+                if (state == ViewPager.SCROLL_STATE_IDLE)
+                    frameTimeMonitor.stop();
+                else
+                    frameTimeMonitor.start();
+            }
         }
     }
 }
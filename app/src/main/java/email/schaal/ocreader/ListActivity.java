@@ -22,6 +22,7 @@ package email.schaal.ocreader;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.app.ProgressDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -70,6 +71,7 @@ import com.mikepenz.materialdrawer.model.interfaces.Tagable;
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 
+import email.schaal.ocreader.database.ItemStateWriter;
 import email.schaal.ocreader.database.Queries;
 import email.schaal.ocreader.model.Feed;
 import email.schaal.ocreader.model.Item;
@@ -77,7 +79,9 @@ import email.schaal.ocreader.model.TemporaryFeed;
 import email.schaal.ocreader.model.TreeItem;
 import email.schaal.ocreader.model.User;
 import email.schaal.ocreader.service.SyncService;
+import email.schaal.ocreader.util.FaviconLoader;
 import email.schaal.ocreader.view.DividerItemDecoration;
+import email.schaal.ocreader.view.ItemRow;
 import email.schaal.ocreader.view.ItemViewHolder;
 import email.schaal.ocreader.view.ItemsAdapter;
 import email.schaal.ocreader.view.ScrollAwareFABBehavior;
@@ -94,6 +98,25 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
 
     private ActionMode actionMode;
 
+    /** Reloads the list when article states changed in the pager were written **/
+    private final ItemStateWriter.OnWrittenListener itemStatesWrittenListener = new ItemStateWriter.OnWrittenListener() {
+        @Override
+        public void onWritten() {
+            adapter.updateItems(false);
+        }
+    };
+
+    /** Reloads the rows copied before the colors of their feed were generated **/
+    private final FaviconLoader.OnFeedColorsStoredListener feedColorsStoredListener = new FaviconLoader.OnFeedColorsStoredListener() {
+        @Override
+        public void onFeedColorsStored() {
+            adapter.updateItems(false);
+        }
+    };
+
+    /** Progress of a running bulk update of selected items **/
+    private ProgressDialog bulkUpdateProgress;
+
     private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -122,8 +145,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
         boolean syncRunning = Preferences.SYS_SYNC_RUNNING.getBoolean(sharedPreferences);
 
         if(needsUpdate) {
-            drawerManager.reloadAdapters(getRealm(), isShowOnlyUnread());
-
+            // the drawers update themselves, see DrawerManager.startListening
             adapter.updateItems(true);
 
             updateUserProfile();
@@ -157,9 +179,23 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
     private SelectableItemsAdapter adapter;
     private LinearLayoutManager layoutManager;
 
+    @Override
+    protected void onDestroy() {
+        // A running bulk update continues without showing its progress
+        if(bulkUpdateProgress != null) {
+            bulkUpdateProgress.dismiss();
+            bulkUpdateProgress = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
+        drawerManager.stopListening();
+        adapter.stopTimeUpdates();
+        ItemStateWriter.getInstance().removeOnWrittenListener(itemStatesWrittenListener);
+        FaviconLoader.removeOnFeedColorsStoredListener(feedColorsStoredListener);
         LocalBroadcastManager.getInstance(this).unregisterReceiver(broadcastReceiver);
     }
 
@@ -168,6 +204,10 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
         super.onResume();
         updateSyncStatus();
         adapter.updateItems(false);
+        drawerManager.startListening(getRealm());
+        adapter.startTimeUpdates();
+        ItemStateWriter.getInstance().addOnWrittenListener(itemStatesWrittenListener);
+        FaviconLoader.addOnFeedColorsStoredListener(feedColorsStoredListener);
         LocalBroadcastManager.getInstance(this).registerReceiver(broadcastReceiver, SyncService.syncFilter);
     }
 
@@ -256,7 +296,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
                 .withOnDrawerListener(new Drawer.OnDrawerListener() {
                     @Override
                     public void onDrawerOpened(View drawerView) {
-                        drawerManager.getStartAdapter().updateUnreadCount(getRealm(), isShowOnlyUnread());
+                        drawerManager.getStartAdapter().updateUnreadCount(isShowOnlyUnread());
                     }
 
                     @Override
@@ -291,7 +331,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
                 .withOnDrawerListener(new Drawer.OnDrawerListener() {
                     @Override
                     public void onDrawerOpened(View drawerView) {
-                        drawerManager.getEndAdapter().updateUnreadCount(getRealm(), isShowOnlyUnread());
+                        drawerManager.getEndAdapter().updateUnreadCount(isShowOnlyUnread());
                     }
 
                     @Override
@@ -319,7 +359,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
         startDrawerBuilder.withToolbar(toolbar);
         startDrawer = startDrawerBuilder.build();
 
-        drawerManager = new DrawerManager(this, startDrawer, endDrawerBuilder.append(startDrawer), isShowOnlyUnread(), this);
+        drawerManager = new DrawerManager(this, getRealm(), startDrawer, endDrawerBuilder.append(startDrawer), isShowOnlyUnread(), this);
 
         RecyclerView itemsRecyclerView = (RecyclerView) findViewById(R.id.items_recyclerview);
 
@@ -369,11 +409,11 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
         itemsRecyclerView.addItemDecoration(new DividerItemDecoration(this, 40));
         itemsRecyclerView.setItemAnimator(new DefaultItemAnimator());
 
-        drawerManager.getState().restoreInstanceState(getRealm(), PreferenceManager.getDefaultSharedPreferences(this));
+        drawerManager.getState().restoreInstanceState(PreferenceManager.getDefaultSharedPreferences(this));
 
         adapter.updateItems(false);
 
-        drawerManager.reloadAdapters(getRealm(), isShowOnlyUnread());
+        drawerManager.reloadAdapters(isShowOnlyUnread());
 
         //noinspection ConstantConditions
         getSupportActionBar().setTitle(drawerManager.getState().getTreeItem().getTitle());
@@ -391,7 +431,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
     }
 
     private void onStartDrawerItemClicked(TreeItem item) {
-        drawerManager.setSelectedTreeItem(getRealm(), item, isShowOnlyUnread());
+        drawerManager.setSelectedTreeItem(item, isShowOnlyUnread());
         reloadListFragment();
     }
 
@@ -439,7 +479,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
                 case ManageFeedsActivity.REQUEST_CODE:
                     drawerManager.reset();
                     reloadListFragment();
-                    drawerManager.reloadAdapters(getRealm(), isShowOnlyUnread());
+                    drawerManager.reloadAdapters(isShowOnlyUnread());
                     break;
             }
         }
@@ -488,7 +528,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
     }
 
     @Override
-    public void onItemClick(Item item, int position) {
+    public void onItemClick(ItemRow item, int position) {
         if(actionMode == null) {
             Intent itemActivityIntent = new Intent(this, ItemPagerActivity.class);
             itemActivityIntent.putExtra(ItemPagerActivity.POSITION, position);
@@ -505,7 +545,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
     }
 
     @Override
-    public void onItemLongClick(Item item, int position) {
+    public void onItemLongClick(ItemRow item, int position) {
         if(actionMode != null || Preferences.SYS_SYNC_RUNNING.getBoolean(PreferenceManager.getDefaultSharedPreferences(this)))
             return;
 
@@ -549,7 +589,7 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
     @Override
     public void onCheckedChanged(IDrawerItem drawerItem, CompoundButton buttonView, boolean isChecked) {
         PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean(Preferences.SHOW_ONLY_UNREAD.getKey(), isChecked).apply();
-        drawerManager.reloadAdapters(getRealm(), isChecked);
+        drawerManager.reloadAdapters(isChecked);
     }
 
     @Override
@@ -589,23 +629,38 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
     public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
         switch (item.getItemId()) {
             case R.id.action_mark_read:
-                Queries.setItemsUnread(getRealm(), false, adapter.getSelectedItems());
+                Queries.setItemsUnread(false, adapter.getSelectedItemIds(), createBulkUpdateListener(adapter.getSelectedItemsCount()));
                 mode.finish();
                 return true;
             case R.id.action_mark_unread:
-                Queries.setItemsUnread(getRealm(), true, adapter.getSelectedItems());
+                Queries.setItemsUnread(true, adapter.getSelectedItemIds(), createBulkUpdateListener(adapter.getSelectedItemsCount()));
                 mode.finish();
                 return true;
             case R.id.action_mark_starred:
-                Queries.setItemsStarred(getRealm(), true, adapter.getSelectedItems());
+                Queries.setItemsStarred(true, adapter.getSelectedItemIds(), createBulkUpdateListener(adapter.getSelectedItemsCount()));
                 mode.finish();
                 return true;
             case R.id.action_mark_unstarred:
-                Queries.setItemsStarred(getRealm(), false, adapter.getSelectedItems());
+                Queries.setItemsStarred(false, adapter.getSelectedItemIds(), createBulkUpdateListener(adapter.getSelectedItemsCount()));
                 mode.finish();
                 return true;
+            case R.id.action_select_all:
+                adapter.selectAll(new SelectableItemsAdapter.OnSelectionChangedListener() {
+                    @Override
+                    public void onSelectionChanged(int selectedItemsCount) {
+                        if(actionMode == null)
+                            return;
+                        if(selectedItemsCount == 0) {
+                            actionMode.finish();
+                        } else {
+                            actionMode.setTitle(String.valueOf(selectedItemsCount));
+                            actionMode.invalidate();
+                        }
+                    }
+                });
+                return true;
             case R.id.action_mark_above_read:
-                Queries.markTemporaryFeedAsRead(getRealm(), adapter.getSelectedItems()[0].getId(),
+                Queries.markTemporaryFeedAsRead(getRealm(), adapter.getSelectedItemIds()[0],
                         new Realm.Transaction.OnSuccess() {
                             @Override
                             public void onSuccess() {
@@ -623,6 +678,42 @@ public class ListActivity extends RealmActivity implements ItemViewHolder.OnClic
         return false;
     }
 
+    /**
+     * Create a listener that shows the progress of a bulk update of more than one batch of items
+     * and updates the list when the update finished
+     * @param count number of items to update
+     */
+    private Queries.BulkUpdateListener createBulkUpdateListener(int count) {
+        if(count > Queries.BULK_UPDATE_BATCH_SIZE) {
+            bulkUpdateProgress = new ProgressDialog(this);
+            bulkUpdateProgress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            bulkUpdateProgress.setMessage(getString(R.string.updating_articles));
+            bulkUpdateProgress.setMax(count);
+            bulkUpdateProgress.setCancelable(false);
+            bulkUpdateProgress.setCanceledOnTouchOutside(false);
+            bulkUpdateProgress.show();
+        }
+
+        return new Queries.BulkUpdateListener() {
+            @Override
+            public void onProgress(int updatedCount, int totalCount) {
+                if(bulkUpdateProgress != null)
+                    bulkUpdateProgress.setProgress(updatedCount);
+            }
+
+            @Override
+            public void onFinished() {
+                if(bulkUpdateProgress != null) {
+                    bulkUpdateProgress.dismiss();
+                    bulkUpdateProgress = null;
+                }
+                // The update can outlive the activity
+                if(!getRealm().isClosed())
+                    adapter.updateItems(false);
+            }
+        };
+    }
+
     @Override
     public void onDestroyActionMode(ActionMode mode) {
         actionMode = null;
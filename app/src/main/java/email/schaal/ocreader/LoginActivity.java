@@ -46,6 +46,7 @@ import com.github.zafarkhaja.semver.Version;
 import email.schaal.ocreader.api.APIService;
 import email.schaal.ocreader.api.json.Status;
 import email.schaal.ocreader.http.HttpManager;
+import email.schaal.ocreader.service.SyncScheduler;
 import email.schaal.ocreader.util.LoginError;
 import okhttp3.HttpUrl;
 import retrofit2.Call;
@@ -276,6 +277,8 @@ public class LoginActivity extends AppCompatActivity {
                             .apply();
 
                     APIService.getInstance().setHttpManager(httpManager);
+                    SyncScheduler.getInstance().ensureSyncScheduled();
+
                     Intent data = new Intent(Intent.ACTION_VIEW);
                     data.putExtra(EXTRA_IMPROPERLY_CONFIGURED_CRON, status.isImproperlyConfiguredCron());
                     data.setData(Uri.parse(httpManager.getCredentials().getRootUrl().resolve("/index.php/apps/news").toString()));
@@ -27,16 +27,22 @@ import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.support.v4.content.ContextCompat;
+import android.util.Log;
 import android.widget.ImageView;
 
 import com.mikepenz.materialdrawer.util.DrawerImageLoader;
 import com.squareup.picasso.OkHttp3Downloader;
 import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+import java.io.File;
 
 import email.schaal.ocreader.api.APIService;
 import email.schaal.ocreader.database.Queries;
-import email.schaal.ocreader.util.AlarmUtils;
+import email.schaal.ocreader.service.SyncScheduler;
+import email.schaal.ocreader.util.FaviconStore;
 import email.schaal.ocreader.util.IcoRequestHandler;
+import email.schaal.ocreader.util.ImageCache;
 import io.realm.RealmConfiguration;
 
 /**
@@ -54,13 +60,17 @@ public class OCReaderApplication extends Application {
                 .apply();
         Queries.init(new RealmConfiguration.Builder(this));
         APIService.init(this);
-        AlarmUtils.init(this);
+        SyncScheduler.init(this);
+        SyncScheduler.getInstance().ensureSyncScheduled();
+
+        ImageCache.init(this);
+        FaviconStore.init(this);
 
         OkHttp3Downloader downloader = new OkHttp3Downloader(this);
 
         Picasso picasso = new Picasso.Builder(this)
                 .downloader(downloader)
-                .defaultBitmapConfig(Bitmap.Config.ARGB_8888)
+                .memoryCache(ImageCache.getInstance())
                 .addRequestHandler(new IcoRequestHandler(downloader))
                 .build();
 
@@ -69,7 +79,10 @@ public class OCReaderApplication extends Application {
         DrawerImageLoader.init(new DrawerImageLoader.IDrawerImageLoader() {
             @Override
             public void set(ImageView imageView, Uri uri, Drawable placeholder) {
-                Picasso.with(imageView.getContext()).load(uri).placeholder(placeholder).into(imageView);
+                RequestCreator requestCreator = Picasso.with(imageView.getContext()).load(uri).placeholder(placeholder);
+                if("file".equals(uri.getScheme()) && FaviconStore.isOpaque(new File(uri.getPath())))
+                    requestCreator.config(Bitmap.Config.RGB_565);
+                requestCreator.into(imageView);
             }
 
             @Override
@@ -88,4 +101,19 @@ public class OCReaderApplication extends Application {
             }
         });
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        ImageCache imageCache = ImageCache.getInstance();
+        if(BuildConfig.DEBUG)
+            Log.d(TAG, "onTrimMemory(" + level + "): " + imageCache);
+
+        if(level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            imageCache.clear();
+        } else if(level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_MODERATE) {
+            imageCache.trimToSize(imageCache.maxSize() / 2);
+        }
+    }
 }
@@ -23,6 +23,7 @@ package email.schaal.ocreader;
 import android.content.SharedPreferences;
 
 import email.schaal.ocreader.model.AllUnreadFolder;
+import email.schaal.ocreader.service.SyncScheduler;
 import io.realm.Sort;
 
 /**
@@ -39,6 +40,10 @@ public enum Preferences {
     /** System preferences **/
     SYS_NEEDS_UPDATE_AFTER_SYNC("needs_update_after_sync", false),
     SYS_SYNC_RUNNING("is_sync_running", false),
+    SYS_SYNC_INTERVAL("sync_interval", SyncScheduler.DEFAULT_INTERVAL),
+    SYS_SYNC_ERROR_COUNT("sync_error_count", 0L),
+    SYS_NEXT_SYNC("next_sync", 0L),
+    SYS_NEXT_SYNC_BOOT_TIME("next_sync_boot_time", 0L),
 
     SYS_STARTDRAWERITEMID("startdrawer_itemid", AllUnreadFolder.ID),
     SYS_ENDRAWERITEM_ID("enddrawer_itemid", null),
@@ -56,9 +56,10 @@ import email.schaal.ocreader.model.Item;
 import email.schaal.ocreader.model.ItemTypeAdapter;
 import email.schaal.ocreader.model.NewsError;
 import email.schaal.ocreader.model.StatusTypeAdapter;
+import email.schaal.ocreader.model.SyncWatermark;
 import email.schaal.ocreader.model.User;
 import email.schaal.ocreader.model.UserTypeAdapter;
-import email.schaal.ocreader.util.AlarmUtils;
+import email.schaal.ocreader.service.SyncScheduler;
 import io.realm.Realm;
 import io.realm.RealmResults;
 import okhttp3.HttpUrl;
@@ -136,7 +137,7 @@ public class APIService {
     }
 
     public void syncChanges(@Nullable final OnCompletionListener completionListener) {
-        AlarmUtils.getInstance().cancelAlarm();
+        SyncScheduler.getInstance().cancelChanges();
 
         executor.execute(new Runnable() {
             @Override
@@ -237,6 +238,14 @@ public class APIService {
         public int getType() {
             return type;
         }
+
+        /**
+         * @param id id of the feed or folder, 0 for the other types
+         * @return scope key of the watermark for this query
+         */
+        public String getScope(long id) {
+            return SyncWatermark.getScope(type, id);
+        }
     }
 
     private static APIService instance;
@@ -362,19 +371,22 @@ public class APIService {
             public boolean onResponseReal(Response<Items> response) {
                 final List<Item> items = response.body().getItems();
 
-                Queries.insert(realm, Item.class, items);
+                Queries.insertItems(realm, items, QueryType.ALL.getScope(0L));
 
                 return true;
             }
         });
     }
 
+    /**
+     * Fetch all items modified after lastSync and advance the global watermark.
+     */
     public void updatedItems(final Realm realm, long lastSync, final APICallback callback) {
         api.updatedItems(lastSync, QueryType.ALL.getType(), 0L).enqueue(new BaseRetrofitCallback<Items>(callback) {
             @Override
             protected boolean onResponseReal(Response<Items> response) {
                 List<Item> items = response.body().getItems();
-                Queries.insert(realm, Item.class, items);
+                Queries.insertItems(realm, items, QueryType.ALL.getScope(0L));
                 return true;
             }
         });
@@ -386,7 +398,8 @@ public class APIService {
             protected boolean onResponseReal(Response<Items> response) {
                 final List<Item> items = response.body().getItems();
 
-                Queries.insert(realm, Item.class, items);
+                // part of the initial sync, together with items()
+                Queries.insertItems(realm, items, QueryType.ALL.getScope(0L));
                 return true;
             }
         });
@@ -397,7 +410,9 @@ public class APIService {
             @Override
             public boolean onResponseReal(Response<Items> response) {
                 final List<Item> items = response.body().getItems();
-                Queries.insert(realm, Item.class, items);
+                // A page of older items says nothing about the changes to the other items,
+                // changes to loaded items are fetched by the global incremental sync
+                Queries.insertItems(realm, items, null);
                 return true;
             }
         });
@@ -456,12 +471,7 @@ public class APIService {
         api.moveFeed(feed.getId(), folderIdMap).enqueue(new BaseRetrofitCallback<Void>(apiCallback) {
             @Override
             protected boolean onResponseReal(Response<Void> response) {
-                realm.executeTransaction(new Realm.Transaction() {
-                    @Override
-                    public void execute(Realm realm) {
-                        feed.setFolderId(folderId);
-                    }
-                });
+                Queries.moveFeed(realm, feed, folderId);
                 return true;
             }
         });
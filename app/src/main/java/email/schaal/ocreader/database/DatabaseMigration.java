@@ -2,11 +2,14 @@ package email.schaal.ocreader.database;
 
 import android.util.Log;
 
+import email.schaal.ocreader.api.APIService;
 import email.schaal.ocreader.model.Feed;
 import email.schaal.ocreader.model.Folder;
 import email.schaal.ocreader.model.Item;
+import email.schaal.ocreader.model.SyncWatermark;
 import io.realm.DynamicRealm;
 import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
 import io.realm.RealmList;
 import io.realm.RealmMigration;
 import io.realm.RealmObjectSchema;
@@ -130,5 +133,74 @@ class DatabaseMigration implements RealmMigration {
                     });
             oldVersion++;
         }
+
+        /**
+         * v8 -> v9
+         * - Add SyncWatermark
+         * - Initialize the global watermark with the newest lastModified timestamp of all items
+         */
+        if (oldVersion == 8) {
+            schema.create("SyncWatermark")
+                    .addField(SyncWatermark.SCOPE, String.class, FieldAttribute.PRIMARY_KEY)
+                    .addField(SyncWatermark.LAST_MODIFIED, long.class);
+
+            Number lastModified = realm.where("Item").max(Item.LAST_MODIFIED);
+            if(lastModified != null) {
+                DynamicRealmObject watermark = realm.createObject("SyncWatermark", APIService.QueryType.ALL.getScope(0L));
+                watermark.setLong(SyncWatermark.LAST_MODIFIED, lastModified.longValue());
+            }
+            oldVersion++;
+        }
+
+        /**
+         * v9 -> v10
+         * - Add cleanBody and cleanBodyVersion to Item
+         */
+        if (oldVersion == 9) {
+            schema.get("Item")
+                    .addField(Item.CLEAN_BODY, String.class)
+                    .addField(Item.CLEAN_BODY_VERSION, int.class);
+            oldVersion++;
+        }
+
+        /**
+         * v10 -> v11
+         * - Add generated colors to Feed
+         */
+        if (oldVersion == 10) {
+            schema.get("Feed")
+                    .addField(Feed.COLORS_GENERATED, boolean.class)
+                    .addField(Feed.TEXT_COLOR, Integer.class)
+                    .addField(Feed.BACKGROUND_COLOR, Integer.class);
+            oldVersion++;
+        }
+
+        /**
+         * v11 -> v12
+         * - Index Item.pubDate for the sorted and paged item list
+         */
+        if (oldVersion == 11) {
+            schema.get("Item")
+                    .addIndex(Item.PUB_DATE);
+            oldVersion++;
+        }
+
+        /**
+         * v12 -> v13
+         * - Add indexed unread count aggregate to Folder
+         */
+        if (oldVersion == 12) {
+            schema.get("Folder")
+                    .addField(Folder.UNREAD_COUNT, int.class, FieldAttribute.INDEXED)
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject obj) {
+                            obj.setInt(Folder.UNREAD_COUNT, realm.where("Feed")
+                                    .equalTo(Feed.FOLDER_ID, obj.getLong(Folder.ID))
+                                    .sum(Feed.UNREAD_COUNT).intValue());
+                        }
+                    });
+            oldVersion++;
+        }
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.database;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import email.schaal.ocreader.model.Item;
+
+/**
+ * Writes unread and starred changes of single items, like marking an article read when paging to it.
+ *
+ * Changes are kept in memory and written on a background thread, changes made in quick
+ * succession are written in one transaction. Until then {@link #isUnread(Item)} and
+ * {@link #isStarred(Item)} return the changed state. All methods have to be called on the
+ * main thread.
+ */
+public class ItemStateWriter {
+    /** Changes are written at most this long after they were made **/
+    private final static long WRITE_DELAY = 1000;
+
+    private static ItemStateWriter instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /** States not written yet, by item id **/
+    private final LongSparseArray<Boolean> unreadStates = new LongSparseArray<>();
+    private final LongSparseArray<Boolean> starredStates = new LongSparseArray<>();
+
+    private final List<OnWrittenListener> listeners = new ArrayList<>();
+
+    private boolean flushScheduled = false;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    public interface OnWrittenListener {
+        /**
+         * Called on the main thread after changes were written to the database
+         */
+        void onWritten();
+    }
+
+    private ItemStateWriter() {
+    }
+
+    public static ItemStateWriter getInstance() {
+        if(instance == null)
+            instance = new ItemStateWriter();
+        return instance;
+    }
+
+    public void setUnread(@NonNull Item item, boolean unread) {
+        unreadStates.put(item.getId(), unread);
+        scheduleFlush();
+    }
+
+    public void setStarred(@NonNull Item item, boolean starred) {
+        starredStates.put(item.getId(), starred);
+        scheduleFlush();
+    }
+
+    /**
+     * @return the unread state of item, including changes not written yet
+     */
+    public boolean isUnread(@NonNull Item item) {
+        return unreadStates.get(item.getId(), item.isUnread());
+    }
+
+    /**
+     * @return the starred state of item, including changes not written yet
+     */
+    public boolean isStarred(@NonNull Item item) {
+        return starredStates.get(item.getId(), item.isStarred());
+    }
+
+    public void addOnWrittenListener(@NonNull OnWrittenListener listener) {
+        if(!listeners.contains(listener))
+            listeners.add(listener);
+    }
+
+    public void removeOnWrittenListener(@NonNull OnWrittenListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void scheduleFlush() {
+        // Not postponed by later changes, so changes are written while paging continuously
+        if(!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, WRITE_DELAY);
+        }
+    }
+
+    /**
+     * Start writing all changes now
+     */
+    public void flush() {
+        if(flushScheduled) {
+            flushScheduled = false;
+            handler.removeCallbacks(flushRunnable);
+        }
+
+        if(unreadStates.size() == 0 && starredStates.size() == 0)
+            return;
+
+        final LongSparseArray<Boolean> writtenUnreadStates = unreadStates.clone();
+        final LongSparseArray<Boolean> writtenStarredStates = starredStates.clone();
+
+        Queries.setItemStates(writtenUnreadStates, writtenStarredStates, new Runnable() {
+            @Override
+            public void run() {
+                // The database contains the written states now, unless they were changed again in the meantime
+                removeWritten(unreadStates, writtenUnreadStates);
+                removeWritten(starredStates, writtenStarredStates);
+
+                for (int i = 0, size = listeners.size(); i < size; i++) {
+                    listeners.get(i).onWritten();
+                }
+            }
+        });
+    }
+
+    private static void removeWritten(LongSparseArray<Boolean> states, LongSparseArray<Boolean> writtenStates) {
+        for (int i = 0, size = writtenStates.size(); i < size; i++) {
+            final long id = writtenStates.keyAt(i);
+            if(writtenStates.valueAt(i).equals(states.get(id)))
+                states.remove(id);
+        }
+    }
+}
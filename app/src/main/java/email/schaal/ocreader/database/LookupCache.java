@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.database;
+
+import android.support.annotation.Nullable;
+import android.support.v4.util.LongSparseArray;
+
+import email.schaal.ocreader.model.Feed;
+import email.schaal.ocreader.model.Folder;
+import io.realm.Realm;
+
+/**
+ * Caches Feed and Folder lookups by id for the duration of a single write transaction.
+ *
+ * Inserting a batch of items or feeds links every element to its parent, which would otherwise
+ * run one query per element although there are only a few distinct parents.
+ * Must not be used outside of the transaction it was created in, the cached objects are only
+ * valid as long as the transaction is running.
+ */
+class LookupCache {
+    private final Realm realm;
+
+    private final LongSparseArray<Feed> feeds = new LongSparseArray<>();
+    private final LongSparseArray<Folder> folders = new LongSparseArray<>();
+
+    LookupCache(Realm realm) {
+        this.realm = realm;
+    }
+
+    /**
+     * Return the feed with id feedId, or insert a new (temporary) feed into the database.
+     * @param feedId id of the feed
+     * @return Feed with id feedId (either from the cache, the database or a newly created one)
+     */
+    Feed getOrCreateFeed(long feedId) {
+        Feed feed = feeds.get(feedId);
+        if(feed == null) {
+            feed = Queries.getOrCreateFeed(realm, feedId);
+            feeds.put(feedId, feed);
+        }
+        return feed;
+    }
+
+    /**
+     * Return the folder with id folderId, or insert a new (temporary) folder into the database.
+     * @param folderId id of the folder
+     * @return Folder with id folderId (either from the cache, the database or a newly created one),
+     *  null for the root folder
+     */
+    @Nullable
+    Folder getOrCreateFolder(long folderId) {
+        // root has folderId == 0, which has no folder in db
+        if(folderId == 0)
+            return null;
+
+        Folder folder = folders.get(folderId);
+        if(folder == null) {
+            folder = Queries.getOrCreateFolder(realm, folderId);
+            folders.put(folderId, folder);
+        }
+        return folder;
+    }
+}
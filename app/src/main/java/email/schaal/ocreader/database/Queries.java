@@ -20,32 +20,45 @@
 
 package email.schaal.ocreader.database;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import email.schaal.ocreader.model.AllUnreadFolder;
 import email.schaal.ocreader.model.Feed;
 import email.schaal.ocreader.model.Folder;
 import email.schaal.ocreader.model.Item;
 import email.schaal.ocreader.model.StarredFolder;
+import email.schaal.ocreader.model.SyncWatermark;
 import email.schaal.ocreader.model.TemporaryFeed;
 import email.schaal.ocreader.model.TreeItem;
-import email.schaal.ocreader.util.AlarmUtils;
+import email.schaal.ocreader.service.SyncScheduler;
+import email.schaal.ocreader.util.ArticleSanitizer;
+import email.schaal.ocreader.util.FeedColors;
 import io.realm.Realm;
+import io.realm.OrderedRealmCollection;
 import io.realm.RealmConfiguration;
 import io.realm.RealmMigration;
+import io.realm.RealmList;
 import io.realm.RealmObject;
 import io.realm.RealmQuery;
 import io.realm.RealmResults;
 import io.realm.Sort;
-import io.realm.exceptions.RealmException;
 
 /**
  * Utility class containing some commonly used Queries for the Realm database.
@@ -53,7 +66,16 @@ import io.realm.exceptions.RealmException;
 public class Queries {
     private final static String TAG = Queries.class.getName();
 
-    public final static int SCHEMA_VERSION = 8;
+    public final static int SCHEMA_VERSION = 13;
+
+    /** Number of items updated per transaction by bulk updates **/
+    public final static int BULK_UPDATE_BATCH_SIZE = 100;
+
+    /** Runs the background writes of user actions one after another **/
+    private final static ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    private final static Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final static int SANITIZE_BATCH_SIZE = 50;
 
     private final static Realm.Transaction initialData = new Realm.Transaction() {
         @Override
@@ -166,24 +188,52 @@ public class Queries {
             return null;
     }
 
-    @Nullable
-    public static RealmResults<Folder> getFolders(Realm realm, boolean onlyUnread) {
-        RealmQuery<Folder> query = null;
-        if(onlyUnread) {
-            RealmResults<Feed> unreadFeeds = realm.where(Feed.class).greaterThan(Feed.UNREAD_COUNT, 0).notEqualTo(Feed.FOLDER_ID, 0).findAll();
-            if(unreadFeeds.size() > 0) {
-                Iterator<Feed> feedIterator = unreadFeeds.iterator();
-                query = realm.where(Folder.class)
-                        .equalTo(Folder.ID, feedIterator.next().getFolderId());
-                while (feedIterator.hasNext()) {
-                    query.or().equalTo(Folder.ID, feedIterator.next().getFolderId());
-                }
-            }
+    /**
+     * Sort items in the order of the item list: by publication date, and by id for items published
+     * at the same time, so the order is the same for every query.
+     * @param items items to sort
+     * @param order sort order
+     * @return sorted items
+     */
+    public static RealmResults<Item> sortItems(OrderedRealmCollection<Item> items, Sort order) {
+        return items.sort(Item.PUB_DATE, order, Item.ID, order);
+    }
+
+    /**
+     * Count the items preceding an item in the order of {@link #sortItems(OrderedRealmCollection, Sort)},
+     * without sorting them. The item doesn't have to exist anymore.
+     * @param items items to query
+     * @param order sort order
+     * @param pubDate publication date of the item
+     * @param id id of the item
+     * @return position the item has, or would have, in the sorted items
+     */
+    public static long countItemsBefore(RealmList<Item> items, Sort order, Date pubDate, long id) {
+        RealmQuery<Item> query = items.where().beginGroup();
+        if(order == Sort.ASCENDING) {
+            query.lessThan(Item.PUB_DATE, pubDate)
+                    .or()
+                    .beginGroup()
+                    .equalTo(Item.PUB_DATE, pubDate)
+                    .lessThan(Item.ID, id)
+                    .endGroup();
         } else {
-            query = realm.where(Folder.class);
+            query.greaterThan(Item.PUB_DATE, pubDate)
+                    .or()
+                    .beginGroup()
+                    .equalTo(Item.PUB_DATE, pubDate)
+                    .greaterThan(Item.ID, id)
+                    .endGroup();
         }
+        return query.endGroup().count();
+    }
 
-        return query != null ? query.findAllSorted(Folder.TITLE, Sort.ASCENDING) : null;
+    @NonNull
+    public static RealmResults<Folder> getFolders(Realm realm, boolean onlyUnread) {
+        RealmQuery<Folder> query = realm.where(Folder.class);
+        if(onlyUnread)
+            query.greaterThan(Folder.UNREAD_COUNT, 0);
+        return query.findAllSorted(Folder.TITLE, Sort.ASCENDING);
     }
 
     @NonNull
@@ -195,16 +245,82 @@ public class Queries {
         realm.executeTransaction(new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
-                if(clazz == Item.class) {
-                    for (T element : elements) {
-                        Item item = (Item) element;
-                        item.setFeed(getOrCreateFeed(realm, item.getFeedId()));
+                linkParents(new LookupCache(realm), clazz, elements);
+                realm.copyToRealmOrUpdate(elements);
+
+                if(clazz == Feed.class || clazz == Folder.class)
+                    updateFolderUnreadCounts(realm);
+            }
+        });
+
+    }
+
+    /**
+     * Link Items to their Feed and Feeds to their Folder before inserting them into the database.
+     * @param lookupCache LookupCache of the running transaction
+     * @param clazz class of the elements
+     * @param elements elements to link
+     */
+    private static <T extends RealmObject> void linkParents(LookupCache lookupCache, Class<T> clazz, Iterable<T> elements) {
+        if(clazz == Item.class) {
+            for (T element : elements) {
+                Item item = (Item) element;
+                item.setFeed(lookupCache.getOrCreateFeed(item.getFeedId()));
+            }
+        } else if(clazz == Feed.class) {
+            for (T element : elements) {
+                Feed feed = (Feed) element;
+                // folderId is missing for feeds not created from a feeds response
+                if(feed.getFolderId() != null)
+                    feed.setFolder(lookupCache.getOrCreateFolder(feed.getFolderId()));
+            }
+        }
+    }
+
+    /**
+     * Insert items and advance the watermark of scope in the same transaction, so the watermark
+     * only moves forward if the items are committed.
+     * @param realm Realm to operate on
+     * @param items Items to insert
+     * @param watermarkScope scope of the watermark to advance (see {@link SyncWatermark#getScope(int, long)}),
+     *                       or null to leave the watermarks untouched
+     */
+    public static void insertItems(Realm realm, final Iterable<Item> items, @Nullable final String watermarkScope) {
+        realm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                linkParents(new LookupCache(realm), Item.class, items);
+                realm.copyToRealmOrUpdate(items);
+
+                if(watermarkScope != null) {
+                    long lastModified = getWatermark(realm, watermarkScope);
+                    for (Item item : items) {
+                        lastModified = Math.max(lastModified, item.getLastModified());
                     }
+                    realm.copyToRealmOrUpdate(new SyncWatermark(watermarkScope, lastModified));
                 }
-                realm.copyToRealmOrUpdate(elements);
             }
         });
+    }
+
+    /**
+     * Get the lastModified timestamp up to which the items of scope are up to date.
+     * @param realm Realm to query
+     * @param scope scope of the watermark
+     * @return lastModified timestamp, 0 if scope was never synced
+     */
+    public static long getWatermark(Realm realm, String scope) {
+        SyncWatermark watermark = realm.where(SyncWatermark.class).equalTo(SyncWatermark.SCOPE, scope).findFirst();
+        return watermark != null ? watermark.getLastModified() : 0L;
+    }
 
+    public static void resetWatermark(Realm realm, final String scope) {
+        realm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                realm.where(SyncWatermark.class).equalTo(SyncWatermark.SCOPE, scope).findAll().deleteAllFromRealm();
+            }
+        });
     }
 
     public static <T extends RealmObject> void insert(Realm realm, final Class<T> clazz, final T element) {
@@ -218,11 +334,11 @@ public class Queries {
         realm.executeTransaction(new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
+                linkParents(new LookupCache(realm), clazz, elements);
+
                 if(clazz == Feed.class) {
-                    for(T element: elements) {
-                        Feed feed = (Feed) element;
-                        feed.setFolder(getOrCreateFolder(realm, feed.getFolderId()));
-                    }
+                    //noinspection unchecked
+                    preserveFeedColors(realm, (List<Feed>) elements);
                 }
 
                 realm.copyToRealmOrUpdate(elements);
@@ -245,10 +361,98 @@ public class Queries {
                     }
                     toRemove.deleteFromRealm();
                 }
+
+                updateFolderUnreadCounts(realm);
             }
         });
     }
 
+    /**
+     * Recompute the unread count of every folder from the unread counts of its feeds.
+     * Called after feeds or folders were replaced, {@link Feed#incrementUnreadCount(int)}
+     * keeps the counts up to date otherwise.
+     * @param realm Realm to operate on, has to be in a transaction
+     */
+    private static void updateFolderUnreadCounts(Realm realm) {
+        final RealmResults<Folder> folders = realm.where(Folder.class).findAll();
+        for (int i = 0, foldersSize = folders.size(); i < foldersSize; i++) {
+            Folder folder = folders.get(i);
+            folder.setUnreadCount(realm.where(Feed.class)
+                    .equalTo(Feed.FOLDER_ID, folder.getId())
+                    .sum(Feed.UNREAD_COUNT).intValue());
+        }
+    }
+
+    /**
+     * Copy the generated colors of the stored feeds to the new feeds, unless the favicon changed
+     */
+    private static void preserveFeedColors(Realm realm, List<Feed> feeds) {
+        for(Feed feed: feeds) {
+            Feed storedFeed = realm.where(Feed.class).equalTo(Feed.ID, feed.getId()).findFirst();
+            if(storedFeed != null && storedFeed.isColorsGenerated()
+                    && TextUtils.equals(storedFeed.getFaviconLink(), feed.getFaviconLink())) {
+                feed.setColorsGenerated(true);
+                feed.setTextColor(storedFeed.getTextColor());
+                feed.setBackgroundColor(storedFeed.getBackgroundColor());
+            }
+        }
+    }
+
+    /**
+     * Store the colors generated from the favicon of a feed, skips the write if the feed is gone,
+     * its favicon changed in the meantime or the colors were stored already
+     * @param realm Realm to operate on, has to be on a Looper thread
+     * @param feedId id of the feed
+     * @param faviconLink favicon the colors were generated from
+     * @param feedColors generated colors
+     * @param onStored called when the colors were written
+     * @param onFinished called when the transaction finished, whether it wrote anything or failed
+     */
+    public static void setFeedColors(Realm realm, final long feedId, @Nullable final String faviconLink, final FeedColors feedColors,
+                                     @Nullable final Runnable onStored, @Nullable final Runnable onFinished) {
+        final AtomicBoolean stored = new AtomicBoolean(false);
+        final Integer textColor = feedColors.getColor(FeedColors.Type.TEXT);
+        final Integer backgroundColor = feedColors.getColor(FeedColors.Type.BACKGROUND);
+
+        realm.executeTransactionAsync(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                Feed feed = realm.where(Feed.class).equalTo(Feed.ID, feedId).findFirst();
+                if(feed == null || !TextUtils.equals(feed.getFaviconLink(), faviconLink))
+                    return;
+                // Another view showing the feed may have stored the colors already
+                if(feed.isColorsGenerated()
+                        && sameColor(feed.getTextColor(), textColor)
+                        && sameColor(feed.getBackgroundColor(), backgroundColor))
+                    return;
+
+                feed.setColorsGenerated(true);
+                feed.setTextColor(textColor);
+                feed.setBackgroundColor(backgroundColor);
+                stored.set(true);
+            }
+        }, new Realm.Transaction.OnSuccess() {
+            @Override
+            public void onSuccess() {
+                if(stored.get() && onStored != null)
+                    onStored.run();
+                if(onFinished != null)
+                    onFinished.run();
+            }
+        }, new Realm.Transaction.OnError() {
+            @Override
+            public void onError(Throwable error) {
+                Log.e(TAG, "Failed to store feed colors", error);
+                if(onFinished != null)
+                    onFinished.run();
+            }
+        });
+    }
+
+    private static boolean sameColor(@Nullable Integer a, @Nullable Integer b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     @NonNull
     public static RealmResults<Feed> getFeedsWithoutFolder(Realm realm, boolean onlyUnread) {
         RealmQuery<Feed> query = realm.where(Feed.class).equalTo(Feed.FOLDER_ID, 0);
@@ -265,7 +469,7 @@ public class Queries {
         } else if (item instanceof StarredFolder) {
             count = (int) realm.where(Item.class).equalTo(Item.STARRED, true).count();
         } else if (item instanceof Folder) {
-            count = realm.where(Feed.class).equalTo(Feed.FOLDER_ID, item.getId()).sum(Feed.UNREAD_COUNT).intValue();
+            count = ((Folder)item).getUnreadCount();
         } else if(item instanceof Feed) {
             count = ((Feed)item).getUnreadCount();
         }
@@ -305,6 +509,47 @@ public class Queries {
         });
     }
 
+    /**
+     * Replace the items of the TemporaryFeed with the items of treeItem in a background transaction
+     * @param realm Realm to operate on, has to be on a Looper thread
+     * @param treeItem TreeItem to show, Feeds and Folders are looked up again by id
+     * @param onlyUnread store only unread items?
+     * @param onSuccess called when the TemporaryFeed was replaced
+     * @param onError called when replacing the TemporaryFeed failed
+     */
+    public static void updateTemporaryFeed(Realm realm, TreeItem treeItem, final boolean onlyUnread,
+                                           Realm.Transaction.OnSuccess onSuccess, Realm.Transaction.OnError onError) {
+        final long treeItemId = treeItem.getId();
+        final String title = treeItem.getTitle();
+        final boolean isFeed = treeItem instanceof Feed;
+        final boolean isFolder = treeItem instanceof Folder;
+        // Special folders are not RealmObjects and can be passed to the background thread
+        final TreeItem specialFolder = isFeed || isFolder ? null : treeItem;
+
+        realm.executeTransactionAsync(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                final TreeItem item;
+                if(isFeed)
+                    item = getFeed(realm, treeItemId);
+                else if(isFolder)
+                    item = getFolder(realm, treeItemId);
+                else
+                    item = specialFolder;
+
+                TemporaryFeed temporaryFeed = realm.where(TemporaryFeed.class).findFirst();
+                temporaryFeed.setId(treeItemId);
+                temporaryFeed.setTitle(title);
+                temporaryFeed.getItems().clear();
+
+                RealmResults<Item> tempItems = item != null ? getItems(realm, item, onlyUnread) : null;
+                if (tempItems != null) {
+                    temporaryFeed.getItems().addAll(tempItems);
+                }
+            }
+        }, onSuccess, onError);
+    }
+
     public static void markTemporaryFeedAsRead(Realm realm, @Nullable final Long lastItemId, Realm.Transaction.OnSuccess onSuccess, Realm.Transaction.OnError onError) {
         realm.executeTransactionAsync(new Realm.Transaction() {
             @Override
@@ -336,48 +581,216 @@ public class Queries {
         }, onSuccess, onError);
     }
 
-    public static void setItemsUnread(Realm realm, final boolean newUnread, final Item... items) {
-        realm.executeTransaction(new Realm.Transaction() {
+    /**
+     * Listener for the progress of bulk updates of items
+     */
+    public interface BulkUpdateListener {
+        /**
+         * Called on the main thread after each batch of items was updated
+         * @param updatedCount number of items updated so far
+         * @param totalCount number of items to update
+         */
+        void onProgress(int updatedCount, int totalCount);
+
+        /**
+         * Called on the main thread after all items were updated, or updating failed
+         */
+        void onFinished();
+    }
+
+    /**
+     * Set the unread state of items on a background thread, in batches of {@link #BULK_UPDATE_BATCH_SIZE}.
+     * Items with the same fingerprint as an updated item are updated too.
+     * @param newUnread new unread state
+     * @param itemIds ids of the items to update
+     * @param listener listener to report the progress to
+     */
+    public static void setItemsUnread(final boolean newUnread, @NonNull long[] itemIds, @Nullable BulkUpdateListener listener) {
+        bulkUpdate(itemIds, listener, new BatchUpdate() {
             @Override
-            public void execute(Realm realm) {
+            public void update(Realm realm, RealmResults<Item> items) {
+                setUnread(realm, items, newUnread);
+            }
+        });
+    }
+
+    /**
+     * Set the starred state of items on a background thread, in batches of {@link #BULK_UPDATE_BATCH_SIZE}.
+     * @param newStarred new starred state
+     * @param itemIds ids of the items to update
+     * @param listener listener to report the progress to
+     */
+    public static void setItemsStarred(final boolean newStarred, @NonNull long[] itemIds, @Nullable BulkUpdateListener listener) {
+        bulkUpdate(itemIds, listener, new BatchUpdate() {
+            @Override
+            public void update(Realm realm, RealmResults<Item> items) {
+                setStarred(items, newStarred);
+            }
+        });
+    }
+
+    /**
+     * Write the unread and starred states of single items on a background thread, in one transaction
+     * @param unreadStates new unread states by item id
+     * @param starredStates new starred states by item id
+     * @param onCommitted called on the main thread after the transaction, also if it failed
+     */
+    public static void setItemStates(final LongSparseArray<Boolean> unreadStates, final LongSparseArray<Boolean> starredStates,
+                                     final Runnable onCommitted) {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Realm realm = null;
                 try {
-                    for (Item item : items) {
-                        /** If the item has a fingerprint, mark all items with the same fingerprint
-                         * as read
-                         */
-                        if(item.getFingerprint() == null) {
-                            item.setUnread(newUnread);
-                        } else {
-                            RealmResults<Item> sameItems = realm.where(Item.class)
-                                    .equalTo(Item.FINGERPRINT, item.getFingerprint())
-                                    .equalTo(Item.UNREAD, !newUnread)
-                                    .findAll();
-                            for(Item sameItem: sameItems) {
-                                sameItem.setUnread(newUnread);
+                    realm = Realm.getDefaultInstance();
+                    realm.executeTransaction(new Realm.Transaction() {
+                        @Override
+                        public void execute(Realm realm) {
+                            for(boolean state: new boolean[] { false, true }) {
+                                setUnread(realm, findItems(realm, getIds(unreadStates, state)), state);
+                                setStarred(findItems(realm, getIds(starredStates, state)), state);
                             }
                         }
-                    }
-                } catch (RealmException e) {
-                    e.printStackTrace();
+                    });
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to write item states", e);
                 } finally {
-                    checkAlarm(realm);
+                    if(realm != null) {
+                        checkAlarm(realm);
+                        realm.close();
+                    }
+                    mainHandler.post(onCommitted);
                 }
             }
         });
     }
 
-    public static void setItemsStarred(Realm realm, final boolean newStarred, final Item... items) {
-        realm.executeTransaction(new Realm.Transaction() {
+    /**
+     * @return ids of the items in states with the given state
+     */
+    private static long[] getIds(LongSparseArray<Boolean> states, boolean state) {
+        int count = 0;
+        final long[] ids = new long[states.size()];
+        for (int i = 0; i < ids.length; i++) {
+            if(states.valueAt(i) == state)
+                ids[count++] = states.keyAt(i);
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * @return the items with the given ids, or null if itemIds is empty
+     */
+    @Nullable
+    private static RealmResults<Item> findItems(Realm realm, long[] itemIds) {
+        return itemIds.length > 0 ? findItems(realm, itemIds, 0, itemIds.length) : null;
+    }
+
+    private static RealmResults<Item> findItems(Realm realm, long[] itemIds, int start, int end) {
+        RealmQuery<Item> query = realm.where(Item.class).equalTo(Item.ID, itemIds[start]);
+        for (int i = start + 1; i < end; i++) {
+            query.or().equalTo(Item.ID, itemIds[i]);
+        }
+        return query.findAll();
+    }
+
+    /**
+     * Set the unread state of items and of all items with the same fingerprint, called in a transaction
+     */
+    private static void setUnread(Realm realm, @Nullable RealmResults<Item> items, boolean newUnread) {
+        if(items == null)
+            return;
+
+        final Set<String> fingerprints = new HashSet<>();
+        for(Item item: items) {
+            if(item.getFingerprint() == null)
+                item.setUnread(newUnread);
+            else
+                fingerprints.add(item.getFingerprint());
+        }
+
+        if(!fingerprints.isEmpty()) {
+            // One query for all fingerprints
+            Iterator<String> fingerprintIterator = fingerprints.iterator();
+            RealmQuery<Item> query = realm.where(Item.class)
+                    .equalTo(Item.UNREAD, !newUnread)
+                    .beginGroup()
+                    .equalTo(Item.FINGERPRINT, fingerprintIterator.next());
+            while (fingerprintIterator.hasNext()) {
+                query.or().equalTo(Item.FINGERPRINT, fingerprintIterator.next());
+            }
+            for(Item sameItem: query.endGroup().findAll()) {
+                sameItem.setUnread(newUnread);
+            }
+        }
+    }
+
+    /**
+     * Set the starred state of items, called in a transaction
+     */
+    private static void setStarred(@Nullable RealmResults<Item> items, boolean newStarred) {
+        if(items == null)
+            return;
+
+        for(Item item: items) {
+            item.setStarred(newStarred);
+        }
+    }
+
+    private interface BatchUpdate {
+        /**
+         * Update a batch of items, called in a transaction
+         */
+        void update(Realm realm, RealmResults<Item> items);
+    }
+
+    /**
+     * Run batchUpdate on the items with itemIds, each batch in its own transaction so the
+     * changes become visible while the update is still running
+     */
+    private static void bulkUpdate(final long[] itemIds, @Nullable final BulkUpdateListener listener, final BatchUpdate batchUpdate) {
+        writeExecutor.execute(new Runnable() {
             @Override
-            public void execute(Realm realm) {
+            public void run() {
+                Realm realm = null;
                 try {
-                    for (Item item : items) {
-                        item.setStarred(newStarred);
+                    realm = Realm.getDefaultInstance();
+                    for(int start = 0; start < itemIds.length; start += BULK_UPDATE_BATCH_SIZE) {
+                        final int end = Math.min(start + BULK_UPDATE_BATCH_SIZE, itemIds.length);
+
+                        realm.beginTransaction();
+                        try {
+                            batchUpdate.update(realm, findItems(realm, itemIds, start, end));
+                            realm.commitTransaction();
+                        } catch (RuntimeException e) {
+                            realm.cancelTransaction();
+                            throw e;
+                        }
+
+                        if(listener != null) {
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onProgress(end, itemIds.length);
+                                }
+                            });
+                        }
                     }
-                } catch (RealmException e) {
-                    e.printStackTrace();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Bulk update failed", e);
                 } finally {
-                    checkAlarm(realm);
+                    if(realm != null) {
+                        checkAlarm(realm);
+                        realm.close();
+                    }
+                    if(listener != null) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onFinished();
+                            }
+                        });
+                    }
                 }
             }
         });
@@ -389,9 +802,9 @@ public class Queries {
                 .or()
                 .equalTo(Item.STARRED_CHANGED, true).count();
         if (changedItemsCount > 0)
-            AlarmUtils.getInstance().setAlarm();
+            SyncScheduler.getInstance().scheduleChanges();
         else
-            AlarmUtils.getInstance().cancelAlarm();
+            SyncScheduler.getInstance().cancelChanges();
     }
 
     /**
@@ -429,13 +842,107 @@ public class Queries {
         return folder;
     }
 
+    /**
+     * Sanitize the bodies of all items which were not sanitized with the current version of
+     * ArticleSanitizer yet. The sanitation runs outside of write transactions, but it is still
+     * expensive, so call this on a background thread.
+     * @param realm Realm to operate on
+     * @param onlyUnread only sanitize unread items, the others are sanitized when they are shown
+     */
+    public static void sanitizeItems(Realm realm, boolean onlyUnread) {
+        RealmQuery<Item> query = realm.where(Item.class)
+                .notEqualTo(Item.CLEAN_BODY_VERSION, ArticleSanitizer.VERSION);
+        if(onlyUnread)
+            query.equalTo(Item.UNREAD, true);
+
+        RealmResults<Item> items = query.findAll();
+
+        // Copy the ids, the results change with every batch written
+        final long[] ids = new long[items.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = items.get(i).getId();
+        }
+
+        final String[] bodies = new String[SANITIZE_BATCH_SIZE];
+        final String[] cleanBodies = new String[SANITIZE_BATCH_SIZE];
+
+        for(int start = 0; start < ids.length; start += SANITIZE_BATCH_SIZE) {
+            final int batchStart = start;
+            final int batchSize = Math.min(SANITIZE_BATCH_SIZE, ids.length - start);
+
+            for (int i = 0; i < batchSize; i++) {
+                Item item = realm.where(Item.class).equalTo(Item.ID, ids[batchStart + i]).findFirst();
+                bodies[i] = item != null ? item.getBody() : null;
+                cleanBodies[i] = ArticleSanitizer.sanitize(bodies[i]);
+            }
+
+            realm.executeTransaction(new Realm.Transaction() {
+                @Override
+                public void execute(Realm realm) {
+                    for (int i = 0; i < batchSize; i++) {
+                        Item item = realm.where(Item.class).equalTo(Item.ID, ids[batchStart + i]).findFirst();
+                        storeCleanBody(item, bodies[i], cleanBodies[i]);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Store the sanitized body of an item
+     * @param realm Realm to operate on
+     * @param itemId id of the item
+     * @param body body the cleanBody was created from
+     * @param cleanBody sanitized body
+     */
+    public static void setCleanBody(Realm realm, final long itemId, final String body, final String cleanBody) {
+        realm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                storeCleanBody(realm.where(Item.class).equalTo(Item.ID, itemId).findFirst(), body, cleanBody);
+            }
+        });
+    }
+
+    private static void storeCleanBody(@Nullable Item item, String body, String cleanBody) {
+        // Skip items which were deleted or updated by a sync in the meantime
+        if(item != null && TextUtils.equals(item.getBody(), body)) {
+            item.setCleanBody(cleanBody);
+            item.setCleanBodyVersion(ArticleSanitizer.VERSION);
+        }
+    }
+
     public static void deleteFeed(final Realm realm, final Feed feed) {
         realm.executeTransaction(new Realm.Transaction() {
             @Override
             public void execute(Realm realm) {
                 realm.where(Item.class).equalTo(Item.FEED_ID, feed.getId()).findAll().deleteAllFromRealm();
+                if(feed.getFolder() != null)
+                    feed.getFolder().incrementUnreadCount(-feed.getUnreadCount());
                 feed.deleteFromRealm();
             }
         });
     }
+
+    /**
+     * Move feed to another folder, moving its unread count along
+     * @param realm Realm to operate on
+     * @param feed Feed to move
+     * @param folderId id of the new folder, 0 for root
+     */
+    public static void moveFeed(final Realm realm, final Feed feed, final long folderId) {
+        realm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                if(feed.getFolder() != null)
+                    feed.getFolder().incrementUnreadCount(-feed.getUnreadCount());
+
+                feed.setFolderId(folderId);
+                feed.setFolder(getOrCreateFolder(realm, folderId));
+
+                if(feed.getFolder() != null)
+                    feed.getFolder().incrementUnreadCount(feed.getUnreadCount());
+            }
+        });
+    }
 }
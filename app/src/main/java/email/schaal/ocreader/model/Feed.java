@@ -54,6 +54,18 @@ public class Feed extends RealmObject implements TreeItem {
     private int starredCount;
     public static final String STARRED_COUNT = "starredCount";
 
+    /**
+     * Not part of the JSON response, colors generated from the favicon
+     */
+    private boolean colorsGenerated;
+    public static final String COLORS_GENERATED = "colorsGenerated";
+
+    private Integer textColor;
+    public static final String TEXT_COLOR = "textColor";
+
+    private Integer backgroundColor;
+    public static final String BACKGROUND_COLOR = "backgroundColor";
+
     /**
      * @since 5.1.0
      */
@@ -151,6 +163,8 @@ public class Feed extends RealmObject implements TreeItem {
 
     public void incrementUnreadCount(int increment) {
         unreadCount += increment;
+        if(folder != null)
+            folder.incrementUnreadCount(increment);
     }
 
     public int getStarredCount() {
@@ -165,6 +179,30 @@ public class Feed extends RealmObject implements TreeItem {
         starredCount += increment;
     }
 
+    public boolean isColorsGenerated() {
+        return colorsGenerated;
+    }
+
+    public void setColorsGenerated(boolean colorsGenerated) {
+        this.colorsGenerated = colorsGenerated;
+    }
+
+    public Integer getTextColor() {
+        return textColor;
+    }
+
+    public void setTextColor(Integer textColor) {
+        this.textColor = textColor;
+    }
+
+    public Integer getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    public void setBackgroundColor(Integer backgroundColor) {
+        this.backgroundColor = backgroundColor;
+    }
+
     public int getOrdering() {
         return ordering;
     }
@@ -21,6 +21,7 @@
 package email.schaal.ocreader.model;
 
 import io.realm.RealmObject;
+import io.realm.annotations.Index;
 import io.realm.annotations.PrimaryKey;
 
 /**
@@ -35,6 +36,14 @@ public class Folder extends RealmObject implements TreeItem {
      */
     private String title;
 
+    /**
+     * Sum of the unread counts of the feeds in this folder, kept up to date by
+     * {@link Feed#incrementUnreadCount(int)} and recomputed when feeds or folders are synced
+     */
+    @Index
+    private int unreadCount;
+    public static final String UNREAD_COUNT = "unreadCount";
+
     public Folder() {
     }
 
@@ -59,6 +68,18 @@ public class Folder extends RealmObject implements TreeItem {
         this.title = title;
     }
 
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setUnreadCount(int unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+
+    public void incrementUnreadCount(int increment) {
+        unreadCount += increment;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof Folder)
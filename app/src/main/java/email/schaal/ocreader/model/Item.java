@@ -46,12 +46,25 @@ public class Item extends RealmObject {
 
     private String author;
 
+    @Index
     private Date pubDate;
     public static final String PUB_DATE = "pubDate";
 
     private String body;
     public static final String BODY = "body";
 
+    /**
+     * Body sanitized by ArticleSanitizer, not part of the JSON response
+     */
+    private String cleanBody;
+    public static final String CLEAN_BODY = "cleanBody";
+
+    /**
+     * Version of ArticleSanitizer used to create cleanBody, 0 if cleanBody was not created yet
+     */
+    private int cleanBodyVersion;
+    public static final String CLEAN_BODY_VERSION = "cleanBodyVersion";
+
     private String enclosureMime;
     private String enclosureLink;
 
@@ -152,6 +165,22 @@ public class Item extends RealmObject {
         this.body = body;
     }
 
+    public String getCleanBody() {
+        return cleanBody;
+    }
+
+    public void setCleanBody(String cleanBody) {
+        this.cleanBody = cleanBody;
+    }
+
+    public int getCleanBodyVersion() {
+        return cleanBodyVersion;
+    }
+
+    public void setCleanBodyVersion(int cleanBodyVersion) {
+        this.cleanBodyVersion = cleanBodyVersion;
+    }
+
     public String getEnclosureMime() {
         return enclosureMime;
     }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.model;
+
+import java.util.Locale;
+
+import io.realm.RealmObject;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * RealmObject storing the lastModified timestamp up to which the items of a sync scope
+ * (all items, a feed or a folder) are known to be up to date.
+ *
+ * Only the scope of all items is advanced: older pages loaded for a feed or folder are kept up to
+ * date by the incremental sync of all items.
+ */
+public class SyncWatermark extends RealmObject {
+    @PrimaryKey
+    private String scope;
+    public static final String SCOPE = "scope";
+
+    private long lastModified;
+    public static final String LAST_MODIFIED = "lastModified";
+
+    public SyncWatermark() {
+    }
+
+    public SyncWatermark(String scope, long lastModified) {
+        this.scope = scope;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Build the scope key for a query type and id, as used by the items API.
+     * @param type query type (see {@link email.schaal.ocreader.api.APIService.QueryType})
+     * @param id id of the feed or folder, 0 for the other types
+     * @return scope key
+     */
+    public static String getScope(int type, long id) {
+        return String.format(Locale.US, "%d/%d", type, id);
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.Locale;
+
+import email.schaal.ocreader.BuildConfig;
+import email.schaal.ocreader.Preferences;
+
+/**
+ * Schedules uploading changed items and periodically pulling new items from the remote server.
+ *
+ * The pull interval adapts to how often new items arrive and backs off exponentially on errors.
+ * All alarms use {@link AlarmManager#ELAPSED_REALTIME}, so they never wake up the device on their
+ * own but are delivered together with the next wakeup caused by someone else.
+ */
+public class SyncScheduler {
+    private static final String TAG = SyncScheduler.class.getName();
+
+    private static final long MINUTE = 60 * 1000;
+
+    /** Delay before uploading changed items **/
+    public static final long CHANGES_DELAY = 5 * MINUTE;
+
+    public static final long MIN_INTERVAL = 15 * MINUTE;
+    public static final long DEFAULT_INTERVAL = 60 * MINUTE;
+    public static final long MAX_INTERVAL = 6 * 60 * MINUTE;
+
+    /** Pull at least this many new items per sync to shorten the interval quickly **/
+    private static final long MANY_NEW_ITEMS = 20;
+
+    /** Allowed drift of the calculated boot time, e.g. after the clock was adjusted by NTP **/
+    private static final long BOOT_TIME_TOLERANCE = MINUTE;
+
+    private static final int REQUEST_CHANGES = 0;
+    private static final int REQUEST_SYNC = 1;
+
+    private static SyncScheduler instance;
+
+    private final Context context;
+    private final AlarmManager alarmManager;
+    private final SharedPreferences sharedPreferences;
+    private final PendingIntent changesIntent;
+    private final PendingIntent syncIntent;
+
+    private boolean changesScheduled = false;
+    /** Time of the next pull in {@link SystemClock#elapsedRealtime()}, 0 if none is scheduled **/
+    private long nextSync;
+
+    private SyncScheduler(Context context) {
+        this.context = context.getApplicationContext();
+        alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        nextSync = getStoredNextSync();
+
+        changesIntent = PendingIntent.getService(context, REQUEST_CHANGES, getIntent(SyncService.ACTION_SYNC_CHANGES_ONLY), PendingIntent.FLAG_UPDATE_CURRENT);
+        syncIntent = PendingIntent.getService(context, REQUEST_SYNC, getIntent(SyncService.ACTION_FULL_SYNC), PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private Intent getIntent(String action) {
+        return new Intent(action, null, context, SyncService.class);
+    }
+
+    public static void init(Context context) {
+        instance = new SyncScheduler(context);
+    }
+
+    public static SyncScheduler getInstance() {
+        if(instance == null)
+            throw new IllegalStateException("Initialize first");
+        return instance;
+    }
+
+    /**
+     * Schedule uploading changed items, unless a pull happens soon anyway, which uploads the
+     * changes first.
+     */
+    public synchronized void scheduleChanges() {
+        if(changesScheduled)
+            return;
+
+        final long now = SystemClock.elapsedRealtime();
+
+        if(nextSync > now && nextSync - now <= 2 * CHANGES_DELAY) {
+            logDecision("changes coalesced with pull", nextSync - now);
+        } else {
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME, now + CHANGES_DELAY, changesIntent);
+            changesScheduled = true;
+            logDecision("changes scheduled", CHANGES_DELAY);
+        }
+    }
+
+    public synchronized void cancelChanges() {
+        if(changesScheduled) {
+            alarmManager.cancel(changesIntent);
+            changesScheduled = false;
+            logDecision("changes cancelled", 0);
+        }
+    }
+
+    /**
+     * Make sure a pull is scheduled, without moving an already scheduled pull.
+     */
+    public synchronized void ensureSyncScheduled() {
+        if(nextSync <= SystemClock.elapsedRealtime())
+            scheduleSync(getInterval(), "pull scheduled");
+    }
+
+    /**
+     * Reschedule the next pull after a sync finished.
+     * @param success whether the sync finished without errors
+     * @param newItems count of new or updated items received
+     */
+    public synchronized void onSyncFinished(boolean success, long newItems) {
+        if(success) {
+            long interval = getNextInterval(getInterval(), newItems);
+
+            sharedPreferences.edit()
+                    .putLong(Preferences.SYS_SYNC_INTERVAL.getKey(), interval)
+                    .putLong(Preferences.SYS_SYNC_ERROR_COUNT.getKey(), 0)
+                    .apply();
+
+            scheduleSync(interval, String.format(Locale.US, "pull after %d new items", newItems));
+        } else {
+            //noinspection ConstantConditions
+            long errorCount = Preferences.SYS_SYNC_ERROR_COUNT.getLong(sharedPreferences) + 1;
+
+            sharedPreferences.edit()
+                    .putLong(Preferences.SYS_SYNC_ERROR_COUNT.getKey(), errorCount)
+                    .apply();
+
+            scheduleSync(getBackoffDelay(errorCount), String.format(Locale.US, "pull backoff after %d errors", errorCount));
+        }
+    }
+
+    private long getInterval() {
+        //noinspection ConstantConditions
+        return Preferences.SYS_SYNC_INTERVAL.getLong(sharedPreferences);
+    }
+
+    private void scheduleSync(long delay, String reason) {
+        if(!Preferences.hasCredentials(sharedPreferences)) {
+            logDecision("pull skipped, no credentials", 0);
+            return;
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        storeNextSync(now + delay);
+
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME, nextSync, syncIntent);
+        logDecision(reason, delay);
+
+        // The pull uploads changes first, drop a separate upload scheduled later than that
+        if(changesScheduled && delay <= CHANGES_DELAY) {
+            alarmManager.cancel(changesIntent);
+            changesScheduled = false;
+            logDecision("changes coalesced with pull", delay);
+        }
+    }
+
+    private void storeNextSync(long nextSync) {
+        this.nextSync = nextSync;
+
+        sharedPreferences.edit()
+                .putLong(Preferences.SYS_NEXT_SYNC.getKey(), nextSync)
+                .putLong(Preferences.SYS_NEXT_SYNC_BOOT_TIME.getKey(), getBootTime())
+                .apply();
+    }
+
+    /**
+     * Alarms don't survive a reboot, so the stored time of the next pull is only valid if it
+     * was stored since the last boot.
+     * @return time of the pending pull in elapsed realtime, or 0 if no pull is pending
+     */
+    private long getStoredNextSync() {
+        //noinspection ConstantConditions
+        final long bootTime = Preferences.SYS_NEXT_SYNC_BOOT_TIME.getLong(sharedPreferences);
+
+        if(Math.abs(getBootTime() - bootTime) > BOOT_TIME_TOLERANCE)
+            return 0;
+
+        //noinspection ConstantConditions
+        return Preferences.SYS_NEXT_SYNC.getLong(sharedPreferences);
+    }
+
+    private static long getBootTime() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Calculate the next pull interval, shorten it if new items arrived and lengthen it otherwise.
+     * @param interval current interval in milliseconds
+     * @param newItems count of new items received by the last pull
+     * @return next interval in milliseconds, between MIN_INTERVAL and MAX_INTERVAL
+     */
+    public static long getNextInterval(long interval, long newItems) {
+        long nextInterval;
+        if(newItems >= MANY_NEW_ITEMS)
+            nextInterval = interval / 2;
+        else if(newItems > 0)
+            nextInterval = interval * 3 / 4;
+        else
+            nextInterval = interval * 3 / 2;
+
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, nextInterval));
+    }
+
+    /**
+     * Calculate the delay before retrying a failed pull.
+     * @param errorCount number of consecutive failed pulls
+     * @return CHANGES_DELAY doubled for every further error, at most MAX_INTERVAL
+     */
+    public static long getBackoffDelay(long errorCount) {
+        if(errorCount <= 1)
+            return CHANGES_DELAY;
+        // cap the shift, MAX_INTERVAL is reached long before
+        return Math.min(MAX_INTERVAL, CHANGES_DELAY << Math.min(errorCount - 1, 16));
+    }
+
+    /**
+     * Log a scheduling decision in debug builds, to make the behaviour of the scheduler inspectable.
+     */
+    private static void logDecision(String reason, long delay) {
+        if(BuildConfig.DEBUG)
+            Log.d(TAG, String.format(Locale.US, "%s (in %ds)", reason, delay / 1000));
+    }
+}
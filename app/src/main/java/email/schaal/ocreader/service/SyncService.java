@@ -45,6 +45,7 @@ import email.schaal.ocreader.database.Queries;
 import email.schaal.ocreader.model.Feed;
 import email.schaal.ocreader.model.Item;
 import email.schaal.ocreader.model.StarredFolder;
+import email.schaal.ocreader.util.FaviconStore;
 import io.realm.Realm;
 import io.realm.RealmResults;
 
@@ -143,6 +144,8 @@ public class SyncService extends Service {
                                 if (!intent.getBooleanExtra(EXTRA_INITIAL_SYNC, false))
                                     lastSync = getLastSyncTimestamp(realm);
 
+                                final long lastItemId = getLastItemId(realm);
+
                                 apiCallback = new CountdownAPICallback(new CountDownLatch(lastSync == 0L ? 5 : 4));
 
                                 APIService.getInstance().user(realm, apiCallback);
@@ -157,7 +160,7 @@ public class SyncService extends Service {
                                     APIService.getInstance().updatedItems(realm, lastSync, apiCallback);
                                 }
 
-                                waitForCountdownLatch(startId, action, apiCallback.countDownLatch);
+                                waitForCountdownLatch(startId, action, apiCallback, lastSync, lastItemId);
                                 break;
                             case LOAD_MORE:
                                 long id = intent.getLongExtra(EXTRA_ID, -1);
@@ -176,10 +179,15 @@ public class SyncService extends Service {
                                 apiCallback = new CountdownAPICallback(new CountDownLatch(1));
                                 APIService.getInstance().moreItems(realm, queryType, offset, id, apiCallback);
 
-                                waitForCountdownLatch(startId, action, apiCallback.countDownLatch);
+                                waitForCountdownLatch(startId, action, apiCallback, 0L, 0L);
                                 break;
                         }
                     } else {
+                        // Uploading changes failed, retry together with the next pull
+                        if(syncType == SyncType.FULL_SYNC)
+                            SyncScheduler.getInstance().onSyncFinished(false, 0);
+                        else if(syncType == SyncType.SYNC_CHANGES_ONLY)
+                            SyncScheduler.getInstance().ensureSyncScheduled();
                         notifySyncStatus(SYNC_FINISHED, action);
                         stopSelf(startId);
                     }
@@ -206,12 +214,12 @@ public class SyncService extends Service {
         }
     };
 
-    private void waitForCountdownLatch(final int startId, final String action, final CountDownLatch countDownLatch) {
+    private void waitForCountdownLatch(final int startId, final String action, final CountdownAPICallback apiCallback, final long lastSync, final long lastItemId) {
         executor.execute(new Runnable() {
             @Override
             public void run() {
                 try {
-                    countDownLatch.await();
+                    apiCallback.countDownLatch.await();
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 } finally {
@@ -219,7 +227,48 @@ public class SyncService extends Service {
                         @Override
                         public void run() {
                             realm.executeTransaction(postProcessFeedTransaction);
+                            // An incomplete initial sync has to be repeated in full
+                            if(apiCallback.failed && lastSync == 0L && ACTION_FULL_SYNC.equals(action))
+                                Queries.resetWatermark(realm, APIService.QueryType.ALL.getScope(0L));
+                            if(ACTION_FULL_SYNC.equals(action)) {
+                                // updated items don't count, only items added to a feed since the last sync
+                                long newItems = realm.where(Item.class).greaterThan(Item.ID, lastItemId).count();
+                                SyncScheduler.getInstance().onSyncFinished(!apiCallback.failed, newItems);
+                            }
                             notifySyncStatus(SYNC_FINISHED, action);
+                            if(ACTION_SYNC_CHANGES_ONLY.equals(action))
+                                stopSelf(startId);
+                            else
+                                postProcessInBackground(startId, action);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Sanitize the bodies of new unread items in the background, so they don't have to be
+     * sanitized when they are shown, and store the favicons of new feeds after a full sync.
+     * Stops the service afterwards.
+     */
+    private void postProcessInBackground(final int startId, final String action) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Realm backgroundRealm = null;
+                try {
+                    backgroundRealm = Realm.getDefaultInstance();
+                    Queries.sanitizeItems(backgroundRealm, true);
+                    if(ACTION_FULL_SYNC.equals(action))
+                        FaviconStore.prefetch(SyncService.this, backgroundRealm);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to post process sync", e);
+                } finally {
+                    Queries.closeRealm(backgroundRealm);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
                             stopSelf(startId);
                         }
                     });
@@ -228,10 +277,13 @@ public class SyncService extends Service {
         });
     }
 
-    private long getLastSyncTimestamp(Realm realm) {
-        Number lastSync = realm.where(Item.class).max(Item.LAST_MODIFIED);
+    private long getLastItemId(Realm realm) {
+        Number lastItemId = realm.where(Item.class).max(Item.ID);
+        return lastItemId != null ? lastItemId.longValue() : 0L;
+    }
 
-        return lastSync != null ? lastSync.longValue() : 0;
+    private long getLastSyncTimestamp(Realm realm) {
+        return Queries.getWatermark(realm, APIService.QueryType.ALL.getScope(0L));
     }
 
     private final Handler handler = new Handler(Looper.getMainLooper());
@@ -275,6 +327,7 @@ public class SyncService extends Service {
 
     private class CountdownAPICallback implements APIService.APICallback {
         private final CountDownLatch countDownLatch;
+        private volatile boolean failed = false;
 
         private CountdownAPICallback(CountDownLatch countDownLatch) {
             this.countDownLatch = countDownLatch;
@@ -287,6 +340,7 @@ public class SyncService extends Service {
 
         @Override
         public void onFailure(String errorMessage) {
+            failed = true;
             countDownLatch.countDown();
 
             Toast.makeText(SyncService.this, errorMessage, Toast.LENGTH_LONG).show();
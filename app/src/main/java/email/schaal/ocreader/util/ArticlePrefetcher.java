@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import email.schaal.ocreader.database.Queries;
+import email.schaal.ocreader.model.Item;
+import io.realm.Realm;
+
+/**
+ * Sanitizes article bodies on a background thread before they are displayed, and keeps the
+ * results in a bounded LRU cache. Bodies already sanitized during sync are read from the database,
+ * newly sanitized bodies are stored there. Cached bodies are only used as long as the item was not
+ * modified since, e.g. by a sync updating the body.
+ */
+public class ArticlePrefetcher {
+    private final static String TAG = ArticlePrefetcher.class.getName();
+
+    /** Number of articles to prepare before and after the current one **/
+    public static final int PREFETCH_DISTANCE = 2;
+
+    /** Maximum size of the cache in characters **/
+    private static final int CACHE_SIZE = 1024 * 1024;
+
+    private final LruCache<Long, CachedBody> bodyCache = new LruCache<Long, CachedBody>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(Long key, CachedBody value) {
+            return value.body.length();
+        }
+    };
+
+    private final Set<Long> pending = Collections.synchronizedSet(new HashSet<Long>());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Sanitize the bodies of the items with the given ids in the background, in the given order.
+     * @param ids ids of the items to prepare
+     */
+    public void prefetch(long... ids) {
+        for(final long id: ids) {
+            // cached bodies of modified items are replaced in the background
+            if(!pending.add(id))
+                continue;
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Realm realm = null;
+                    try {
+                        realm = Realm.getDefaultInstance();
+                        Item item = realm.where(Item.class).equalTo(Item.ID, id).findFirst();
+                        if(item != null && getCachedBody(item) == null) {
+                            if (item.getCleanBodyVersion() == ArticleSanitizer.VERSION) {
+                                putCachedBody(item, item.getCleanBody());
+                            } else {
+                                // sanitize lazily on first view and store the result
+                                final String body = item.getBody();
+                                final String cleanBody = ArticleSanitizer.sanitize(body);
+                                putCachedBody(item, cleanBody);
+                                Queries.setCleanBody(realm, id, body, cleanBody);
+                            }
+                        }
+                    } catch (Exception e) {
+                        // the body is sanitized when the article is shown instead
+                        Log.e(TAG, "Failed to prefetch item " + id, e);
+                    } finally {
+                        pending.remove(id);
+                        Queries.closeRealm(realm);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Return the sanitized body of item, sanitizing it on the calling thread if it was neither
+     * stored nor prefetched.
+     * @param item Item to get the body for
+     * @return sanitized body of item
+     */
+    @NonNull
+    public String getBody(@NonNull Item item) {
+        String body = getCachedBody(item);
+        if(body == null && item.getCleanBodyVersion() == ArticleSanitizer.VERSION)
+            body = item.getCleanBody();
+        if(body == null) {
+            body = ArticleSanitizer.sanitize(item.getBody());
+            putCachedBody(item, body);
+        }
+        return body;
+    }
+
+    /**
+     * @return the cached body of item, or null if it isn't cached or the item was modified since
+     */
+    @Nullable
+    private String getCachedBody(@NonNull Item item) {
+        final CachedBody cachedBody = bodyCache.get(item.getId());
+        return cachedBody != null && cachedBody.lastModified == item.getLastModified() ? cachedBody.body : null;
+    }
+
+    private void putCachedBody(@NonNull Item item, @NonNull String body) {
+        bodyCache.put(item.getId(), new CachedBody(item.getLastModified(), body));
+    }
+
+    /**
+     * Stop prefetching, pending items are dropped
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class CachedBody {
+        private final long lastModified;
+        private final String body;
+
+        private CachedBody(long lastModified, String body) {
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
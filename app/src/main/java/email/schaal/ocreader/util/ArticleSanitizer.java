@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.safety.Cleaner;
+import org.jsoup.safety.Whitelist;
+
+/**
+ * Sanitize article bodies for display in {@link email.schaal.ocreader.view.ArticleWebView}.
+ *
+ * Strips everything not allowed by a relaxed whitelist (including all scripts) and replaces
+ * iframes with links or video thumbnails using {@link IframeRewriter}. Does not touch any views,
+ * so it is safe to call on a background thread.
+ */
+public class ArticleSanitizer {
+    /**
+     * Increment whenever the sanitation rules change, bodies stored with an older version are
+     * sanitized again.
+     */
+    public final static int VERSION = 2;
+
+    // iframes are replaced in prepareDocument()
+    private final static Cleaner cleaner = new Cleaner(Whitelist.relaxed().addTags("video","iframe").addAttributes("iframe", "src"));
+
+    private ArticleSanitizer() {
+    }
+
+    /**
+     * Sanitize the html body of an article
+     * @param body html body of the article
+     * @return sanitized html, ready to be inserted into the body of the article page
+     */
+    @NonNull
+    public static String sanitize(@Nullable String body) {
+        if(body == null)
+            return "";
+
+        Document document = Jsoup.parse(body);
+        document = cleaner.clean(document);
+        prepareDocument(document);
+
+        document.outputSettings().prettyPrint(false);
+        return document.body().html();
+    }
+
+    private static void prepareDocument(Document document) {
+        for(Element iframe: document.getElementsByTag("iframe")) {
+            IframeRewriter.rewrite(iframe);
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package email.schaal.ocreader.util;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.ColorInt;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.graphics.ColorUtils;
 import android.support.v7.graphics.Palette;
-import android.util.LruCache;
+import android.text.TextUtils;
 import android.widget.ImageView;
 
 import com.squareup.picasso.Callback;
@@ -19,10 +24,15 @@ import com.squareup.picasso.Picasso;
 import com.squareup.picasso.RequestCreator;
 import com.squareup.picasso.Target;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 import email.schaal.ocreader.R;
+import email.schaal.ocreader.database.Queries;
 import email.schaal.ocreader.model.Feed;
+import io.realm.Realm;
 
 import static android.support.v7.graphics.Target.DARK_VIBRANT;
 import static android.support.v7.graphics.Target.LIGHT_MUTED;
@@ -32,8 +42,22 @@ import static android.support.v7.graphics.Target.VIBRANT;
  * Load favicons
  */
 public class FaviconLoader {
-    private final static LruCache<Long, FeedColors> feedColorsCache = new LruCache<>(32);
-    private final static LruCache<Long, Drawable> faviconCache = new LruCache<>(32);
+    private final static String TAG = FaviconLoader.class.getName();
+
+    /** Delay before notifying about stored feed colors, colors of several feeds are often stored at once **/
+    private final static long FEED_COLORS_STORED_DELAY = 500;
+
+    private final static Handler handler = new Handler(Looper.getMainLooper());
+    private final static List<OnFeedColorsStoredListener> feedColorsStoredListeners = new ArrayList<>();
+
+    private final static Runnable feedColorsStoredRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for(OnFeedColorsStoredListener listener: new ArrayList<>(feedColorsStoredListeners)) {
+                listener.onFeedColorsStored();
+            }
+        }
+    };
 
     private final int placeholder;
     private final ImageView imageView;
@@ -61,24 +85,114 @@ public class FaviconLoader {
     public static Drawable getDrawable(Context context, @Nullable Feed feed) {
         Drawable drawable;
 
-        if(feed != null && feed.getFaviconLink() == null) {
-            drawable = faviconCache.get(feed.getId());
-
-            if(drawable == null) {
-                drawable = new TextDrawable.Builder().build(feed.getTitle().substring(0, 1), getFeedColor(feed));
-                faviconCache.put(feed.getId(), drawable);
-            }
+        if(feed != null && feed.getFaviconLink() == null && !TextUtils.isEmpty(feed.getTitle())) {
+            final Resources resources = context.getResources();
+            final int size = resources.getDimensionPixelSize(R.dimen.materialize_icon);
+            // every view needs its own drawable, only the bitmap is shared
+            drawable = new BitmapDrawable(resources, getLetterAvatar(feed.getTitle().charAt(0), getFeedColor(feed), size));
         } else {
             drawable = ContextCompat.getDrawable(context, R.drawable.ic_feed_icon);
         }
         return drawable;
     }
 
+    /**
+     * Get a letter avatar, rendered once per letter, color and size and kept in the ImageCache.
+     */
+    private static Bitmap getLetterAvatar(char letter, @ColorInt int color, int size) {
+        final ImageCache imageCache = ImageCache.getInstance();
+        final long key = getLetterAvatarKey(letter, color, size);
+
+        Bitmap bitmap = imageCache.get(key);
+        if(bitmap == null) {
+            bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+
+            TextDrawable textDrawable = new TextDrawable.Builder().build(String.valueOf(letter), color);
+            textDrawable.setBounds(0, 0, size, size);
+            textDrawable.draw(new Canvas(bitmap));
+
+            imageCache.set(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the letter in the upper 16 bits, the size in the following 16 bits and the color in the lower 32 bits
+     */
+    private static long getLetterAvatarKey(char letter, @ColorInt int color, int size) {
+        return ((long) letter << 48) | ((long) (size & 0xffff) << 32) | (color & 0xffffffffL);
+    }
+
+    /**
+     * Get the colors of feed without loading the favicon
+     * @param feed Feed to get the colors for
+     * @return colors of feed, or null if the favicon has to be loaded first
+     */
+    @Nullable
+    public static FeedColors getCachedFeedColors(@Nullable Feed feed) {
+        if(feed == null)
+            return null;
+        if(feed.getFaviconLink() == null)
+            return new FeedColors(getFeedColor(feed));
+        if(feed.isColorsGenerated())
+            return new FeedColors(feed.getTextColor(), feed.getBackgroundColor());
+        return null;
+    }
+
+    /**
+     * Store the colors generated from the favicon of feed, so the palette is only generated once
+     * per favicon
+     */
+    private static void storeFeedColors(long feedId, String faviconLink, @NonNull FeedColors feedColors) {
+        final Realm realm = Realm.getDefaultInstance();
+
+        Queries.setFeedColors(realm, feedId, faviconLink, feedColors, new Runnable() {
+            @Override
+            public void run() {
+                scheduleFeedColorsStored();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                realm.close();
+            }
+        });
+    }
+
+    /**
+     * Notify the listeners once after colors of several feeds were stored in a row
+     */
+    private static void scheduleFeedColorsStored() {
+        handler.removeCallbacks(feedColorsStoredRunnable);
+        handler.postDelayed(feedColorsStoredRunnable, FEED_COLORS_STORED_DELAY);
+    }
+
+    /**
+     * Listen for stored feed colors, e.g. to reload copies of feeds made before they were stored
+     * @param listener listener to call on the main thread
+     */
+    public static void addOnFeedColorsStoredListener(@NonNull OnFeedColorsStoredListener listener) {
+        feedColorsStoredListeners.add(listener);
+    }
+
+    public static void removeOnFeedColorsStoredListener(@NonNull OnFeedColorsStoredListener listener) {
+        feedColorsStoredListeners.remove(listener);
+    }
+
     public static int getFeedColor(@NonNull Feed feed) {
         return ColorGenerator.MATERIAL.getColor(feed.getUrl());
     }
 
     public void load(@NonNull FeedColorsListener listener) {
+        load(feed, listener);
+    }
+
+    /**
+     * Load the favicon of feed, allows reusing one FaviconLoader for the same view
+     * @param feed Feed to load the favicon for, overrides the feed passed to the Builder
+     * @param listener listener to call with the generated colors
+     */
+    public void load(@Nullable Feed feed, @NonNull FeedColorsListener listener) {
         listener.onStart();
         if(feed == null) {
             listener.onGenerated(null);
@@ -86,8 +200,17 @@ public class FaviconLoader {
         }
 
         if(feed.getFaviconLink() != null) {
-            // load favicon
-            RequestCreator requestCreator = Picasso.with(context).load(feed.getFaviconLink());
+            // load favicon, prefer the copy stored after the last sync
+            File storedFile = FaviconStore.getStoredFile(context, feed.getFaviconLink());
+            RequestCreator requestCreator;
+            if(storedFile != null) {
+                requestCreator = Picasso.with(context).load(storedFile);
+                // halve the memory used by icons without transparency
+                if(FaviconStore.isOpaque(storedFile))
+                    requestCreator.config(Bitmap.Config.RGB_565);
+            } else {
+                requestCreator = Picasso.with(context).load(feed.getFaviconLink());
+            }
             MyTarget myTarget = new MyTarget(feed, listener);
 
             if(imageView != null) {
@@ -125,6 +248,10 @@ public class FaviconLoader {
                 .generate(paletteAsyncListener);
     }
 
+    public interface OnFeedColorsStoredListener {
+        void onFeedColorsStored();
+    }
+
     public interface FeedColorsListener {
         void onGenerated(FeedColors feedColors);
         void onStart();
@@ -175,14 +302,17 @@ public class FaviconLoader {
 
         @Override
         public void onBitmapLoaded(final Bitmap bitmap, Picasso.LoadedFrom from) {
-            final FeedColors cachedFeedColors = feedColorsCache.get(feed.getId());
+            final FeedColors cachedFeedColors = getCachedFeedColors(feed);
             if(cachedFeedColors == null) {
+                // feed could be deleted before the palette is generated
+                final long feedId = feed.getId();
+                final String faviconLink = feed.getFaviconLink();
                 generatePalette(bitmap, new Palette.PaletteAsyncListener() {
                     @Override
                     public void onGenerated(Palette palette) {
                         FeedColors feedColors = new FeedColors(palette);
-                        feedColorsCache.put(feed.getId(), feedColors);
                         listener.onGenerated(feedColors);
+                        storeFeedColors(feedId, faviconLink, feedColors);
                     }
                 });
             } else {
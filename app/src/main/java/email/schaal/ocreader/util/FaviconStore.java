@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.squareup.picasso.MemoryPolicy;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import email.schaal.ocreader.R;
+import email.schaal.ocreader.model.Feed;
+import io.realm.Realm;
+import io.realm.RealmResults;
+
+/**
+ * Stores favicons as small png files, already scaled to the size they are displayed at.
+ *
+ * Favicons are fetched and decoded once after a feed sync by {@link #prefetch(Context, Realm)},
+ * binding a view only reads the local file afterwards. The names of the stored files are kept in
+ * memory, so looking up a favicon doesn't touch the disk.
+ */
+public class FaviconStore {
+    private static final String TAG = FaviconStore.class.getName();
+
+    private static final String DIRECTORY = "favicons";
+    private static final String EXTENSION = ".png";
+    /** Icons without transparent pixels, loaded as RGB_565 **/
+    private static final String OPAQUE_EXTENSION = ".opaque.png";
+
+    /** Base names of the files for favicon links, to avoid hashing the link on every lookup **/
+    private static final Map<String, String> baseNames = new HashMap<>();
+
+    /** Names of the files in the favicon directory, guarded by itself **/
+    private static final Set<String> storedFileNames = new HashSet<>();
+    private static boolean storedFileNamesLoaded = false;
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+
+    private FaviconStore() {
+    }
+
+    /**
+     * Read the names of the stored favicons on a background thread. Until they are read,
+     * {@link #getStoredFile(Context, String)} finds no stored favicons.
+     * @param context Context to use
+     */
+    public static void init(@NonNull Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadStoredFileNames(getDirectory(applicationContext));
+            }
+        });
+    }
+
+    @WorkerThread
+    private static void loadStoredFileNames(File directory) {
+        synchronized (storedFileNames) {
+            if(storedFileNamesLoaded)
+                return;
+        }
+
+        final String[] fileNames = directory.list();
+
+        synchronized (storedFileNames) {
+            // prefetch may have loaded and changed the names in the meantime
+            if(storedFileNamesLoaded)
+                return;
+            if(fileNames != null)
+                Collections.addAll(storedFileNames, fileNames);
+            storedFileNamesLoaded = true;
+        }
+    }
+
+    /**
+     * Get the stored favicon for faviconLink
+     * @param context Context to use
+     * @param faviconLink link to the favicon
+     * @return the stored file, or null if the favicon was not stored yet
+     */
+    @Nullable
+    public static File getStoredFile(@NonNull Context context, @Nullable String faviconLink) {
+        if(faviconLink == null)
+            return null;
+
+        final File opaqueFile = getFile(context, faviconLink, true);
+        final File file = getFile(context, faviconLink, false);
+
+        synchronized (storedFileNames) {
+            if(storedFileNames.contains(opaqueFile.getName()))
+                return opaqueFile;
+            return storedFileNames.contains(file.getName()) ? file : null;
+        }
+    }
+
+    /**
+     * @param file file returned by {@link #getStoredFile(Context, String)}
+     * @return true if the icon has no transparent pixels and can be decoded without alpha channel
+     */
+    public static boolean isOpaque(@NonNull File file) {
+        return file.getName().endsWith(OPAQUE_EXTENSION);
+    }
+
+    /**
+     * Download, decode and scale the favicons of all feeds not stored yet, and delete stored
+     * favicons no feed uses anymore. Call on a background thread.
+     * @param context Context to use
+     * @param realm Realm to read the feeds from
+     */
+    @WorkerThread
+    public static void prefetch(@NonNull Context context, @NonNull Realm realm) {
+        final int size = context.getResources().getDimensionPixelSize(R.dimen.materialize_icon);
+        final Set<String> fileNames = new HashSet<>();
+
+        final File directory = getDirectory(context);
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Failed to create " + directory);
+            return;
+        }
+
+        // make sure the names stored and deleted below are not overwritten by init
+        loadStoredFileNames(directory);
+
+        RealmResults<Feed> feeds = realm.where(Feed.class).isNotNull(Feed.FAVICON_LINK).findAll();
+
+        // Copy the links first, downloading takes a while
+        Set<String> faviconLinks = new HashSet<>(feeds.size());
+        for(Feed feed: feeds) {
+            faviconLinks.add(feed.getFaviconLink());
+        }
+
+        for(String faviconLink: faviconLinks) {
+            File file = getFile(context, faviconLink, false);
+            File opaqueFile = getFile(context, faviconLink, true);
+            fileNames.add(file.getName());
+            fileNames.add(opaqueFile.getName());
+
+            if(!file.exists() && !opaqueFile.exists())
+                store(context, faviconLink, file, opaqueFile, size);
+        }
+
+        File[] storedFiles = directory.listFiles();
+        if(storedFiles != null) {
+            for (File file : storedFiles) {
+                if (fileNames.contains(file.getName()))
+                    continue;
+
+                if(file.delete()) {
+                    synchronized (storedFileNames) {
+                        storedFileNames.remove(file.getName());
+                    }
+                } else {
+                    Log.w(TAG, "Failed to delete " + file);
+                }
+            }
+        }
+    }
+
+    private static void store(Context context, String faviconLink, File file, File opaqueFile, int size) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            Bitmap bitmap = Picasso.with(context)
+                    .load(faviconLink)
+                    .resize(size, size)
+                    .centerInside()
+                    .memoryPolicy(MemoryPolicy.NO_CACHE, MemoryPolicy.NO_STORE)
+                    .get();
+
+            if(bitmap == null)
+                return;
+
+            outputStream = new FileOutputStream(tempFile);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+            outputStream.close();
+            outputStream = null;
+
+            final File storedFile = isOpaque(bitmap) ? opaqueFile : file;
+            if(tempFile.renameTo(storedFile)) {
+                synchronized (storedFileNames) {
+                    storedFileNames.add(storedFile.getName());
+                }
+            } else {
+                Log.w(TAG, "Failed to store favicon " + faviconLink);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Picasso throws RuntimeExceptions for undecodable images
+            Log.w(TAG, "Failed to load favicon " + faviconLink, e);
+        } finally {
+            if(outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if(tempFile.exists() && !tempFile.delete())
+                Log.w(TAG, "Failed to delete " + tempFile);
+        }
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    private static boolean isOpaque(Bitmap bitmap) {
+        if(!bitmap.hasAlpha())
+            return true;
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        for(int pixel: pixels) {
+            if(pixel >>> 24 != 0xff)
+                return false;
+        }
+        return true;
+    }
+
+    private static File getFile(Context context, String faviconLink, boolean opaque) {
+        String baseName;
+        synchronized (baseNames) {
+            baseName = baseNames.get(faviconLink);
+            if(baseName == null) {
+                baseName = hash(faviconLink);
+                baseNames.put(faviconLink, baseName);
+            }
+        }
+        return new File(getDirectory(context), baseName + (opaque ? OPAQUE_EXTENSION : EXTENSION));
+    }
+
+    private static String hash(String string) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(string.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for(byte b: digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are always available on Android
+            throw new IllegalStateException(e);
+        }
+    }
+}
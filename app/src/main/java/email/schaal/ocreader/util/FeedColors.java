@@ -30,6 +30,11 @@ public class FeedColors {
         colorMap.put(Type.TEXT, backgroundColor);
     }
 
+    public FeedColors(@Nullable @ColorInt Integer textColor, @Nullable @ColorInt Integer backgroundColor) {
+        colorMap.put(Type.TEXT, textColor);
+        colorMap.put(Type.BACKGROUND, backgroundColor);
+    }
+
     private Integer initBackgroundColor(Palette palette) {
         Integer color = null;
         Palette.Swatch swatch = palette.getLightMutedSwatch();
@@ -56,6 +61,12 @@ public class FeedColors {
         return color;
     }
 
+    @Nullable
+    @ColorInt
+    public Integer getColor(@NonNull Type type) {
+        return colorMap.get(type);
+    }
+
     public static int get(@Nullable FeedColors feedColors, @NonNull Type type, @ColorInt int defaultColor) {
         if(feedColors != null) {
             Integer color = feedColors.colorMap.get(type);
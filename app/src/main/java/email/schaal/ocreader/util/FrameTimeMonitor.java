@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.Locale;
+
+/**
+ * Measures frame times between {@link #start()} and {@link #stop()} and logs a summary,
+ * used to check scrolling performance in debug builds.
+ */
+public class FrameTimeMonitor implements Choreographer.FrameCallback {
+    private static final String TAG = FrameTimeMonitor.class.getName();
+
+    /** Frames taking longer than this (in nanoseconds) are counted as janky **/
+    private static final long JANK_THRESHOLD = 17 * 1000 * 1000;
+
+    private final String name;
+
+    private boolean running = false;
+    private long lastFrameTime;
+    private int frames;
+    private int jankyFrames;
+    private long totalTime;
+    private long maxTime;
+
+    public FrameTimeMonitor(String name) {
+        this.name = name;
+    }
+
+    public void start() {
+        if(running)
+            return;
+
+        running = true;
+        lastFrameTime = 0;
+        frames = 0;
+        jankyFrames = 0;
+        totalTime = 0;
+        maxTime = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void stop() {
+        if(!running)
+            return;
+
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+
+        if(frames > 0)
+            Log.d(TAG, String.format(Locale.US, "%s: %d frames, avg %.1fms, max %.1fms, %d janky",
+                    name, frames, totalTime / 1e6 / frames, maxTime / 1e6, jankyFrames));
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if(!running)
+            return;
+
+        if(lastFrameTime != 0) {
+            final long frameTime = frameTimeNanos - lastFrameTime;
+            frames++;
+            totalTime += frameTime;
+            maxTime = Math.max(maxTime, frameTime);
+            if(frameTime > JANK_THRESHOLD)
+                jankyFrames++;
+        }
+        lastFrameTime = frameTimeNanos;
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import divstar.ico4a.codec.ico.ICODecoder;
+
+/**
+ * Decode a single image of an ico file.
+ *
+ * Reads the directory of the ico file first and only decodes the image closest to the target
+ * size, instead of decoding every image like {@link ICODecoder#read(java.io.InputStream)}.
+ */
+public class IcoDecoder {
+    private final static int HEADER_SIZE = 6;
+    private final static int ENTRY_SIZE = 16;
+
+    private final static byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G' };
+
+    private IcoDecoder() {
+    }
+
+    /**
+     * An image in the directory of an ico file
+     */
+    public static class Entry {
+        public final int index;
+        public final int width;
+        public final int height;
+        public final int bitCount;
+        public final int size;
+        public final int offset;
+
+        Entry(int index, int width, int height, int bitCount, int size, int offset) {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+            this.bitCount = bitCount;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Read the directory of an ico file
+     * @param data content of the ico file
+     * @return the images in the ico file
+     * @throws IOException if data is not a valid ico file
+     */
+    @NonNull
+    public static List<Entry> readDirectory(@NonNull byte[] data) throws IOException {
+        if(data.length < HEADER_SIZE || readShort(data, 0) != 0 || readShort(data, 2) != 1)
+            throw new IOException("Not an ico file");
+
+        final int count = readShort(data, 4);
+        if(data.length < HEADER_SIZE + count * ENTRY_SIZE)
+            throw new IOException("Truncated ico directory");
+
+        List<Entry> entries = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            final int position = HEADER_SIZE + i * ENTRY_SIZE;
+
+            // a size of 0 means 256 pixels
+            final int width = data[position] == 0 ? 256 : data[position] & 0xff;
+            final int height = data[position + 1] == 0 ? 256 : data[position + 1] & 0xff;
+            final int bitCount = readShort(data, position + 6);
+            final int size = readInt(data, position + 8);
+            final int offset = readInt(data, position + 12);
+
+            if(offset >= 0 && size > 0 && (long) offset + size <= data.length)
+                entries.add(new Entry(i, width, height, bitCount, size, offset));
+        }
+
+        if(entries.isEmpty())
+            throw new IOException("No images in ico file");
+
+        return entries;
+    }
+
+    /**
+     * Select the image to decode for the target size
+     * @param entries images in the ico file
+     * @param targetSize size the image is displayed at, 0 to select the largest image
+     * @return the smallest image at least as large as targetSize, or the largest image if none
+     * is large enough. Images with more colors are preferred for equal sizes.
+     */
+    @NonNull
+    public static Entry selectEntry(@NonNull List<Entry> entries, int targetSize) {
+        Entry selected = null;
+        for(Entry entry: entries) {
+            if(selected == null || isBetter(entry, selected, targetSize))
+                selected = entry;
+        }
+        if(selected == null)
+            throw new IllegalArgumentException("No entries");
+        return selected;
+    }
+
+    private static boolean isBetter(Entry entry, Entry selected, int targetSize) {
+        final int entrySize = Math.max(entry.width, entry.height);
+        final int selectedSize = Math.max(selected.width, selected.height);
+
+        if(entrySize == selectedSize)
+            return entry.bitCount > selected.bitCount;
+
+        final boolean entryLargeEnough = targetSize > 0 && entrySize >= targetSize;
+        final boolean selectedLargeEnough = targetSize > 0 && selectedSize >= targetSize;
+
+        if(entryLargeEnough && selectedLargeEnough)
+            return entrySize < selectedSize;
+        else if(entryLargeEnough != selectedLargeEnough)
+            return entryLargeEnough;
+        else
+            return entrySize > selectedSize;
+    }
+
+    /**
+     * Decode the image of the ico file closest to targetSize
+     * @param data content of the ico file
+     * @param targetSize size the image is displayed at, 0 to decode the largest image
+     * @return decoded bitmap, downsampled if the image is much larger than targetSize
+     * @throws IOException if data is not a valid ico file
+     */
+    @Nullable
+    public static Bitmap decode(@NonNull byte[] data, int targetSize) throws IOException {
+        final Entry entry = selectEntry(readDirectory(data), targetSize);
+
+        if(isPng(data, entry.offset)) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, entry.offset, entry.size, options);
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = getSampleSize(Math.max(options.outWidth, options.outHeight), targetSize);
+            return BitmapFactory.decodeByteArray(data, entry.offset, entry.size, options);
+        } else {
+            // Let ICODecoder handle the bitmap formats, passing it an ico file containing only this image
+            byte[] singleImage = new byte[HEADER_SIZE + ENTRY_SIZE + entry.size];
+            System.arraycopy(data, 0, singleImage, 0, 4);
+            writeShort(singleImage, 4, 1);
+            System.arraycopy(data, HEADER_SIZE + entry.index * ENTRY_SIZE, singleImage, HEADER_SIZE, 12);
+            writeInt(singleImage, HEADER_SIZE + 12, HEADER_SIZE + ENTRY_SIZE);
+            System.arraycopy(data, entry.offset, singleImage, HEADER_SIZE + ENTRY_SIZE, entry.size);
+
+            List<Bitmap> bitmaps = ICODecoder.read(new ByteArrayInputStream(singleImage));
+            return bitmaps.isEmpty() ? null : bitmaps.get(0);
+        }
+    }
+
+    /**
+     * @return the largest power of two to divide size by while staying at least targetSize
+     */
+    public static int getSampleSize(int size, int targetSize) {
+        int sampleSize = 1;
+        if(targetSize > 0) {
+            while (size / (sampleSize * 2) >= targetSize)
+                sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static boolean isPng(byte[] data, int offset) {
+        if(data.length < offset + PNG_SIGNATURE.length)
+            return false;
+        for(int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if(data[offset + i] != PNG_SIGNATURE[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] data, int position) {
+        return (data[position] & 0xff) | (data[position + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return readShort(data, position) | readShort(data, position + 2) << 16;
+    }
+
+    private static void writeShort(byte[] data, int position, int value) {
+        data[position] = (byte) value;
+        data[position + 1] = (byte) (value >> 8);
+    }
+
+    private static void writeInt(byte[] data, int position, int value) {
+        writeShort(data, position, value);
+        writeShort(data, position + 2, value >> 16);
+    }
+}
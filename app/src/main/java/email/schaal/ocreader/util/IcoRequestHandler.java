@@ -29,15 +29,14 @@ import com.squareup.picasso.Request;
 import com.squareup.picasso.RequestHandler;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.List;
 
-import divstar.ico4a.codec.ico.ICODecoder;
+import okio.BufferedSource;
+import okio.Okio;
 
 /**
  * Handle requests for Picasso for ico files
  *
- * Convert ico files containing multiple sizes to multiple images
+ * Decode the image of the ico file closest to the requested size, see {@link IcoDecoder}
  */
 public class IcoRequestHandler extends RequestHandler {
     private final Downloader downloader;
@@ -57,20 +56,20 @@ public class IcoRequestHandler extends RequestHandler {
         Downloader.Response response = downloader.load(request.uri, networkPolicy);
 
         if(response != null && response.getInputStream() != null) {
-            final InputStream inputStream = response.getInputStream();
-
-            List<Bitmap> bitmaps = ICODecoder.read(inputStream);
-
-            Bitmap biggest = bitmaps.remove(0);
-
-            for(Bitmap bitmap: bitmaps) {
-                if(bitmap.getHeight() > biggest.getHeight())
-                    biggest = bitmap;
+            final byte[] data;
+            final BufferedSource source = Okio.buffer(Okio.source(response.getInputStream()));
+            try {
+                data = source.readByteArray();
+            } finally {
+                source.close();
             }
 
-            inputStream.close();
+            // Only decode the image closest to the requested size, or the largest without a size
+            final int targetSize = request.hasSize() ? Math.max(request.targetWidth, request.targetHeight) : 0;
+            final Bitmap bitmap = IcoDecoder.decode(data, targetSize);
 
-            return new Result(biggest, Picasso.LoadedFrom.NETWORK);
+            if(bitmap != null)
+                return new Result(bitmap, Picasso.LoadedFrom.NETWORK);
         }
 
         return null;
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Tag;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replaces iframes with links or video thumbnails.
+ *
+ * Rules are looked up by the host of the iframe src, so the cost per iframe does not grow with
+ * the number of supported providers. Replacement elements are built directly instead of parsing
+ * html fragments.
+ */
+public class IframeRewriter {
+    private final static Map<String, Rule> rules = new HashMap<>();
+
+    static {
+        final Rule youtube = new VideoRule(
+                Pattern.compile("/embed/([a-zA-Z0-9-_]+)"),
+                "youtu.be/", "",
+                "img.youtube.com/vi/", "/sddefault.jpg");
+        addRule(youtube, "youtube.com", "m.youtube.com", "youtube-nocookie.com");
+
+        addRule(new VideoRule(
+                Pattern.compile("/video/([a-zA-Z0-9]+)"),
+                "vimeo.com/", "",
+                null, null), "player.vimeo.com");
+
+        addRule(new VideoRule(
+                Pattern.compile("/embed/video/([a-zA-Z0-9]+)"),
+                "www.dailymotion.com/video/", "",
+                "www.dailymotion.com/thumbnail/video/", ""), "dailymotion.com");
+    }
+
+    private IframeRewriter() {
+    }
+
+    /**
+     * A rewrite rule for the iframes of one provider
+     */
+    public interface Rule {
+        /**
+         * Build the replacement for an iframe
+         * @param scheme scheme of the iframe src including the separator, e.g. "https://"
+         * @param path path of the iframe src, without query and fragment
+         * @return the replacement element, or null if the rule does not apply to the path
+         */
+        @Nullable
+        Element rewrite(String scheme, String path);
+    }
+
+    /**
+     * Register a rule for the given hosts, replacing rules previously registered for them.
+     * A leading "www." is ignored when looking up hosts.
+     * @param rule rule to register
+     * @param hosts hosts the rule applies to
+     */
+    public static void addRule(@NonNull Rule rule, String... hosts) {
+        synchronized (rules) {
+            for (String host : hosts) {
+                rules.put(normalizeHost(host), rule);
+            }
+        }
+    }
+
+    /**
+     * Replace iframe with a link to its src, or a video thumbnail for known providers.
+     * iframes without src are removed.
+     * @param iframe element to replace
+     */
+    public static void rewrite(Element iframe) {
+        final String src = iframe.attr("src");
+        if(src.isEmpty()) {
+            iframe.remove();
+            return;
+        }
+
+        Element replacement = null;
+
+        final int schemeEnd = src.indexOf("//");
+        if(schemeEnd >= 0) {
+            // protocol-relative urls are loaded via https
+            final String scheme = schemeEnd == 0 ? "https://" : src.substring(0, schemeEnd + 2);
+
+            if(scheme.equalsIgnoreCase("https://") || scheme.equalsIgnoreCase("http://")) {
+                final int hostStart = schemeEnd + 2;
+                final int pathStart = indexOfAny(src, "/?#", hostStart);
+                final int pathEnd = indexOfAny(src, "?#", pathStart);
+
+                String host = src.substring(hostStart, pathStart);
+                final int portStart = host.indexOf(':');
+                if(portStart >= 0)
+                    host = host.substring(0, portStart);
+
+                final Rule rule;
+                synchronized (rules) {
+                    rule = rules.get(normalizeHost(host));
+                }
+
+                if(rule != null)
+                    replacement = rule.rewrite(scheme.toLowerCase(Locale.US), src.substring(pathStart, pathEnd));
+            }
+        }
+
+        if(replacement == null)
+            replacement = createLink(src).text(src);
+
+        iframe.replaceWith(replacement);
+    }
+
+    private static String normalizeHost(String host) {
+        host = host.toLowerCase(Locale.US);
+        return host.startsWith("www.") ? host.substring(4) : host;
+    }
+
+    private static int indexOfAny(String string, String chars, int fromIndex) {
+        for(int i = fromIndex, length = string.length(); i < length; i++) {
+            if(chars.indexOf(string.charAt(i)) >= 0)
+                return i;
+        }
+        return string.length();
+    }
+
+    private static Element createLink(String href) {
+        return new Element(Tag.valueOf("a"), "").attr("href", href);
+    }
+
+    /**
+     * Rule for video embeds with the video id in the path, optionally showing a thumbnail
+     */
+    private static class VideoRule implements Rule {
+        private final Pattern pathPattern;
+        private final String linkPrefix;
+        private final String linkSuffix;
+        @Nullable private final String thumbPrefix;
+        @Nullable private final String thumbSuffix;
+
+        /**
+         * @param pathPattern pattern matching the path, the first group is the video id
+         * @param linkPrefix link to the video before the id, without scheme
+         * @param linkSuffix link to the video after the id
+         * @param thumbPrefix thumbnail url before the id, without scheme, null if there is no thumbnail
+         * @param thumbSuffix thumbnail url after the id
+         */
+        VideoRule(Pattern pathPattern, String linkPrefix, String linkSuffix, @Nullable String thumbPrefix, @Nullable String thumbSuffix) {
+            this.pathPattern = pathPattern;
+            this.linkPrefix = linkPrefix;
+            this.linkSuffix = linkSuffix;
+            this.thumbPrefix = thumbPrefix;
+            this.thumbSuffix = thumbSuffix;
+        }
+
+        @Nullable
+        @Override
+        public Element rewrite(String scheme, String path) {
+            final Matcher matcher = pathPattern.matcher(path);
+            if(!matcher.matches())
+                return null;
+
+            final String videoId = matcher.group(1);
+            final String href = scheme + linkPrefix + videoId + linkSuffix;
+
+            if(thumbPrefix == null)
+                return createLink(href).text(href);
+
+            final Element div = new Element(Tag.valueOf("div"), "").attr("style", "position:relative");
+            final Element link = div.appendChild(createLink(href)).child(0);
+            link.appendElement("img")
+                    .attr("src", scheme + thumbPrefix + videoId + thumbSuffix)
+                    .addClass("videothumb");
+            link.appendElement("span")
+                    .addClass("play")
+                    .text("▶");
+            return div;
+        }
+    }
+}
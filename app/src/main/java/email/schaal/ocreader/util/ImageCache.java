@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import com.squareup.picasso.Cache;
+
+import java.util.Locale;
+
+/**
+ * Memory cache for all bitmaps shown outside of WebViews: favicons loaded by Picasso and
+ * generated images like letter avatars share one budget in bytes.
+ *
+ * Picasso stores its bitmaps under string keys, generated images use numeric keys, so the
+ * two can't collide.
+ */
+public class ImageCache implements Cache {
+    /** Separator Picasso uses between the uri and the transformation part of its keys **/
+    private static final char KEY_SEPARATOR = '\n';
+
+    private static ImageCache instance;
+
+    private final LruCache<Object, Bitmap> cache;
+
+    private ImageCache(int maxBytes) {
+        cache = new LruCache<Object, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Object key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    public static void init(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        // Icons are small, 1/16 of the memory class is plenty
+        instance = new ImageCache(activityManager.getMemoryClass() * 1024 * 1024 / 16);
+    }
+
+    public static ImageCache getInstance() {
+        if(instance == null)
+            throw new IllegalStateException("Initialize first");
+        return instance;
+    }
+
+    @Nullable
+    @Override
+    public Bitmap get(@NonNull String key) {
+        return cache.get(key);
+    }
+
+    @Override
+    public void set(@NonNull String key, @NonNull Bitmap bitmap) {
+        cache.put(key, bitmap);
+    }
+
+    /**
+     * Get a generated bitmap
+     * @param key numeric key of the bitmap
+     * @return the cached bitmap, or null if it has to be generated (again)
+     */
+    @Nullable
+    public Bitmap get(long key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Store a generated bitmap
+     * @param key numeric key of the bitmap
+     * @param bitmap bitmap to store
+     */
+    public void set(long key, @NonNull Bitmap bitmap) {
+        cache.put(key, bitmap);
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return cache.maxSize();
+    }
+
+    @Override
+    public void clear() {
+        cache.evictAll();
+    }
+
+    @Override
+    public void clearKeyUri(String keyPrefix) {
+        final int length = keyPrefix.length();
+        for (Object key : cache.snapshot().keySet()) {
+            if (!(key instanceof String))
+                continue;
+            final String stringKey = (String) key;
+            if (stringKey.startsWith(keyPrefix) && stringKey.length() > length && stringKey.charAt(length) == KEY_SEPARATOR)
+                cache.remove(key);
+        }
+    }
+
+    /**
+     * Evict bitmaps until at most maxBytes are used
+     * @param maxBytes maximum number of bytes to keep
+     */
+    public void trimToSize(int maxBytes) {
+        // LruCache.trimToSize is not public before API 17, the snapshot is ordered least recently used first
+        for(Object key: cache.snapshot().keySet()) {
+            if(cache.size() <= maxBytes)
+                break;
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * @return bytes currently used by cached bitmaps
+     */
+    public int getResidentBytes() {
+        return cache.size();
+    }
+
+    /**
+     * @return share of lookups served from the cache, between 0 and 1
+     */
+    public float getHitRate() {
+        final int hits = cache.hitCount();
+        final int lookups = hits + cache.missCount();
+        return lookups > 0 ? (float) hits / lookups : 0f;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "ImageCache[%d/%d bytes, %d entries, hit rate %.0f%%, %d evictions]",
+                cache.size(), cache.maxSize(), cache.snapshot().size(), getHitRate() * 100, cache.evictionCount());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs, stored sorted in an array like {@link android.util.SparseArray} stores
+ * its keys. Lookups are binary searches and no value is boxed.
+ */
+public class LongSet {
+    private long[] values;
+    private int size;
+
+    public LongSet() {
+        this(10);
+    }
+
+    public LongSet(int initialCapacity) {
+        values = new long[Math.max(initialCapacity, 1)];
+    }
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    /**
+     * @param value value to add
+     * @return true if the value was not in the set before
+     */
+    public boolean add(long value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if(index >= 0)
+            return false;
+
+        index = ~index;
+        if(size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Add all values, replacing the current content of the set
+     * @param newValues values to add, in any order
+     */
+    public void setAll(@NonNull long[] newValues) {
+        values = Arrays.copyOf(newValues, Math.max(newValues.length, 1));
+        Arrays.sort(values, 0, newValues.length);
+
+        // remove duplicates
+        size = 0;
+        for(int i = 0; i < newValues.length; i++) {
+            if(size == 0 || values[size - 1] != values[i])
+                values[size++] = values[i];
+        }
+    }
+
+    /**
+     * @param value value to remove
+     * @return true if the value was in the set
+     */
+    public boolean remove(long value) {
+        final int index = Arrays.binarySearch(values, 0, size, value);
+        if(index < 0)
+            return false;
+
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index index between 0 and {@link #size()}
+     * @return the value at index, values are in ascending order
+     */
+    public long valueAt(int index) {
+        if(index >= size)
+            throw new ArrayIndexOutOfBoundsException(index);
+        return values[index];
+    }
+
+    /**
+     * @return copy of the values in ascending order
+     */
+    @NonNull
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
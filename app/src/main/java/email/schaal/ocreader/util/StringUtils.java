@@ -24,7 +24,6 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.Html;
-import android.text.format.DateUtils;
 
 import java.util.Date;
 
@@ -55,24 +54,17 @@ public class StringUtils {
 
     @NonNull
     public static String getTimeSpanString(Context context, Date startDate) {
-        return getTimeSpanString(context, startDate, new Date());
+        return getTimeSpanString(context, startDate.getTime(), System.currentTimeMillis());
     }
 
     @NonNull
     public static String getTimeSpanString(Context context, Date startDate, Date endDate) {
-        String timeSpanString;
-
-        long timeDiff = (endDate.getTime() - startDate.getTime());
+        return getTimeSpanString(context, startDate.getTime(), endDate.getTime());
+    }
 
-        if(timeDiff <= 0)
-            timeSpanString = context.getString(R.string.now);
-        else if(timeDiff <= 59 * DateUtils.MINUTE_IN_MILLIS)
-            timeSpanString = context.getString(R.string.minutes, timeDiff/DateUtils.MINUTE_IN_MILLIS);
-        else if(timeDiff <= 23 * DateUtils.HOUR_IN_MILLIS)
-            timeSpanString = context.getString(R.string.hours, timeDiff/DateUtils.HOUR_IN_MILLIS);
-        else
-            timeSpanString = context.getString(R.string.days, timeDiff / DateUtils.DAY_IN_MILLIS);
-        return timeSpanString;
+    @NonNull
+    public static String getTimeSpanString(Context context, long startTime, long endTime) {
+        return TimeSpanFormatter.getInstance(context).format(startTime, endTime);
     }
 
     @NonNull
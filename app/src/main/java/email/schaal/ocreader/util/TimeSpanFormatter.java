@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.text.format.DateUtils;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import email.schaal.ocreader.R;
+
+/**
+ * Formats the time span since an item was published, like "5m" or "3h".
+ *
+ * The formatted strings are cached per unit and value, so formatting the time of a list row does
+ * not allocate once the bucket was formatted before. Shown time spans are refreshed once a minute
+ * by a single tick shared by all {@link OnTickListener}s.
+ */
+public class TimeSpanFormatter {
+    private static TimeSpanFormatter instance;
+
+    private final Context context;
+
+    private final SparseArray<String> minutes = new SparseArray<>();
+    private final SparseArray<String> hours = new SparseArray<>();
+    private final SparseArray<String> days = new SparseArray<>();
+    private String now;
+    /** Locale the cached strings were formatted for **/
+    private Locale locale;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<OnTickListener> tickListeners = new ArrayList<>();
+
+    private final Runnable tickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for(int i = 0, size = tickListeners.size(); i < size; i++) {
+                tickListeners.get(i).onTick();
+            }
+            handler.postDelayed(this, DateUtils.MINUTE_IN_MILLIS);
+        }
+    };
+
+    public interface OnTickListener {
+        /**
+         * Called once a minute on the main thread while the listener is registered
+         */
+        void onTick();
+    }
+
+    private TimeSpanFormatter(Context context) {
+        this.context = context;
+    }
+
+    public static TimeSpanFormatter getInstance(@NonNull Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        if(instance == null || instance.context != applicationContext)
+            instance = new TimeSpanFormatter(applicationContext);
+        return instance;
+    }
+
+    /**
+     * @param startTime start of the time span in milliseconds
+     * @return the time span from startTime until now
+     */
+    @NonNull
+    public String format(long startTime) {
+        return format(startTime, System.currentTimeMillis());
+    }
+
+    /**
+     * @param startTime start of the time span in milliseconds
+     * @param endTime end of the time span in milliseconds
+     * @return the time span from startTime until endTime
+     */
+    @NonNull
+    public String format(long startTime, long endTime) {
+        if(locale != Locale.getDefault()) {
+            locale = Locale.getDefault();
+            minutes.clear();
+            hours.clear();
+            days.clear();
+            now = null;
+        }
+
+        final long timeDiff = endTime - startTime;
+
+        if(timeDiff <= 0) {
+            if(now == null)
+                now = context.getString(R.string.now);
+            return now;
+        } else if(timeDiff <= 59 * DateUtils.MINUTE_IN_MILLIS)
+            return get(minutes, R.string.minutes, (int) (timeDiff / DateUtils.MINUTE_IN_MILLIS));
+        else if(timeDiff <= 23 * DateUtils.HOUR_IN_MILLIS)
+            return get(hours, R.string.hours, (int) (timeDiff / DateUtils.HOUR_IN_MILLIS));
+        else
+            return get(days, R.string.days, (int) (timeDiff / DateUtils.DAY_IN_MILLIS));
+    }
+
+    private String get(SparseArray<String> cache, int resId, int value) {
+        String string = cache.get(value);
+        if(string == null) {
+            string = context.getString(resId, value);
+            cache.put(value, string);
+        }
+        return string;
+    }
+
+    /**
+     * Call listener once a minute until it is removed. Call on the main thread.
+     * @param listener listener to add
+     */
+    public void addOnTickListener(@NonNull OnTickListener listener) {
+        if(tickListeners.contains(listener))
+            return;
+        tickListeners.add(listener);
+        if(tickListeners.size() == 1)
+            handler.postDelayed(tickRunnable, DateUtils.MINUTE_IN_MILLIS);
+    }
+
+    /**
+     * Stop calling listener. Call on the main thread.
+     * @param listener listener to remove
+     */
+    public void removeOnTickListener(@NonNull OnTickListener listener) {
+        if(tickListeners.remove(listener) && tickListeners.isEmpty())
+            handler.removeCallbacks(tickRunnable);
+    }
+}
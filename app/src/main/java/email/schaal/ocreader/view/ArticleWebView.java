@@ -1,29 +1,27 @@
 package email.schaal.ocreader.view;
 
 import android.annotation.SuppressLint;
+import android.content.ActivityNotFoundException;
 import android.content.Context;
+import android.content.Intent;
 import android.content.res.TypedArray;
+import android.net.Uri;
 import android.support.annotation.ColorInt;
 import android.support.annotation.Keep;
 import android.support.annotation.Nullable;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.webkit.JavascriptInterface;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.safety.Cleaner;
-import org.jsoup.safety.Whitelist;
-import org.jsoup.select.Elements;
-
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStream;
 
 import email.schaal.ocreader.R;
 import email.schaal.ocreader.model.Feed;
@@ -36,10 +34,40 @@ import email.schaal.ocreader.util.StringUtils;
  * WebView to display a Item
  */
 public class ArticleWebView extends NestedScrollWebView {
+    private static final String TAG = ArticleWebView.class.getName();
+
+    /**
+     * Virtual url of the stylesheet, served from the assets by {@link #webViewClient}.
+     * The .invalid domain never resolves, nothing leaks if the request is not intercepted.
+     */
+    private final static String CSS_URL = "https://ocreader.invalid/item_page.css";
+    private final static String CSS_ASSET = "item_page.css";
+
+    /*
+     * Page template, split at the slots for link color, article url, title, byline and body.
+     * The style element has to stay the first stylesheet, the link color rule is changed
+     * by feedColorsListener if the feed colors were not known when building the page.
+     */
+    private final static String TEMPLATE_START = "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"><style type=\"text/css\">a:link, a:active, a:hover { color: ";
+    private final static String TEMPLATE_URL = " }</style><link rel=\"stylesheet\" type=\"text/css\" href=\"" + CSS_URL + "\"></head><body><a href=\"";
+    private final static String TEMPLATE_TITLE = "\" class=\"title\">";
+    private final static String TEMPLATE_BYLINE = "</a><p class=\"byline\">";
+    private final static String TEMPLATE_BODY = "</p>";
+    private final static String TEMPLATE_CALLBACK = "<script>(function() { JsCallback.startLoading(); })();</script>";
+    private final static String TEMPLATE_END = "</body></html>";
+
+    private final static int TEMPLATE_LENGTH = TEMPLATE_START.length() + TEMPLATE_URL.length()
+            + TEMPLATE_TITLE.length() + TEMPLATE_BYLINE.length() + TEMPLATE_BODY.length()
+            + TEMPLATE_CALLBACK.length() + TEMPLATE_END.length();
+
+    private static byte[] css = null;
+
     @ColorInt
     private int defaultTitleColor;
+    private String defaultLinkColor;
 
     private Item item;
+    private String body;
 
     private final FaviconLoader.FeedColorsListener feedColorsListener = new FaviconLoader.FeedColorsListener() {
         @Override
@@ -56,13 +84,29 @@ public class ArticleWebView extends NestedScrollWebView {
         }
     };
 
-    // iframes are replaced in prepareDocument()
-    private final static Cleaner cleaner = new Cleaner(Whitelist.relaxed().addTags("video","iframe").addAttributes("iframe", "src"));
-
-    private static String css = null;
+    private final WebViewClient webViewClient = new WebViewClient() {
+        @Override
+        public boolean shouldOverrideUrlLoading(WebView view, String url) {
+            // open links in the browser instead of the article view
+            try {
+                getContext().startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+            } catch (ActivityNotFoundException e) {
+                Log.w(TAG, "No activity found to open " + url, e);
+            }
+            return true;
+        }
 
-    private final static String videoThumbLink = "<div style=\"position:relative\"><a href=\"%s\"><img src=\"%s\" class=\"videothumb\"></img><span class=\"play\">▶</span></a></div>";
-    private final static String videoLink = "<a href=\"%s\">%s</a>";
+        @SuppressWarnings("deprecation")
+        @Override
+        public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
+            if(CSS_URL.equals(url)) {
+                byte[] data = getCss(view.getContext());
+                if(data != null)
+                    return new WebResourceResponse("text/css", "UTF-8", new ByteArrayInputStream(data));
+            }
+            return super.shouldInterceptRequest(view, url);
+        }
+    };
 
     public ArticleWebView(Context context) {
         super(context);
@@ -92,6 +136,7 @@ public class ArticleWebView extends NestedScrollWebView {
         } finally {
             typedArray.recycle();
         }
+        defaultLinkColor = FaviconLoader.getCssColor(defaultTitleColor);
 
         WebSettings webSettings = getSettings();
 
@@ -101,121 +146,101 @@ public class ArticleWebView extends NestedScrollWebView {
         webSettings.setDisplayZoomControls(false);
 
         addJavascriptInterface(new JsCallback(), "JsCallback");
+
+        setWebViewClient(webViewClient);
     }
 
-    public void setItem(Item item) {
+    /**
+     * Display item
+     * @param item Item to display
+     * @param body body of item, already sanitized by {@link email.schaal.ocreader.util.ArticleSanitizer}
+     */
+    public void setItem(Item item, String body) {
         this.item = item;
+        this.body = body;
         loadDataWithBaseURL(null, getHtml(), "text/html", "UTF-8", null);
     }
 
+    /**
+     * Drop the displayed item before the view is reused for another one
+     */
+    public void clear() {
+        item = null;
+        body = null;
+        stopLoading();
+        loadUrl("about:blank");
+    }
+
     @Keep
     private class JsCallback {
         @JavascriptInterface
         public void startLoading() {
-            getHandler().post(new Runnable() {
+            post(new Runnable() {
                 @Override
                 public void run() {
-                    new FaviconLoader.Builder(getContext(), item.getFeed())
-                            .build()
-                            .load(feedColorsListener);
+                    // the view may have been cleared and returned to the pool in the meantime
+                    if(item != null)
+                        new FaviconLoader.Builder(getContext(), item.getFeed())
+                                .build()
+                                .load(feedColorsListener);
                 }
             });
         }
     }
 
-    private String getHtml() {
-        Context context = getContext();
-        if (css == null)
+    /**
+     * Read the stylesheet from the assets once, called on the WebView's network thread.
+     */
+    @Nullable
+    private static synchronized byte[] getCss(Context context) {
+        if (css == null) {
+            InputStream inputStream = null;
             try {
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(context.getAssets().open("item_page.css")));
-                String line;
-                StringBuilder cssBuilder = new StringBuilder();
-                while ((line = bufferedReader.readLine()) != null) {
-                    cssBuilder.append(line);
+                inputStream = context.getAssets().open(CSS_ASSET);
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
                 }
-                css = cssBuilder.toString();
+                css = outputStream.toByteArray();
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                if(inputStream != null) {
+                    try {
+                        inputStream.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
             }
+        }
+        return css;
+    }
 
-        Feed feed = item.getFeed();
-
-        Document document = Jsoup.parse(item.getBody());
-        document = cleaner.clean(document);
-        prepareDocument(document);
-
-        StringBuilder pageBuilder = new StringBuilder(
-                "<!DOCTYPE html><html><head><meta charset=\"UTF-8\">");
-
-        pageBuilder.append(String.format(
-                "<style type=\"text/css\">a:link, a:active,a:hover { color: %s } %s</style>",
-                FaviconLoader.getCssColor(defaultTitleColor), css));
-
-        pageBuilder.append("</head><body>");
-
-        pageBuilder.append(String.format(
-                "<a href=\"%s\" class=\"title\">%s</a><p class=\"byline\">%s</p>",
-                item.getUrl(),
-                item.getTitle(),
-                StringUtils.getByLine(context, String.format("<a href=\"%s\">%s</a>", feed.getLink(), feed.getTitle()), item.getAuthor())
-                )
-        );
-
-        document.outputSettings().prettyPrint(false);
-        pageBuilder.append(document.body().html());
-
-        pageBuilder.append("<script>(function() { JsCallback.startLoading(); })();</script>");
+    private String getHtml() {
+        final Feed feed = item.getFeed();
 
-        pageBuilder.append("</body></html>");
+        // Inline the feed color if it is known already, otherwise the page asks for it when loaded
+        final FeedColors feedColors = FaviconLoader.getCachedFeedColors(feed);
+        final String linkColor = feedColors != null
+                ? FaviconLoader.getCssColor(FeedColors.get(feedColors, FeedColors.Type.TEXT, defaultTitleColor))
+                : defaultLinkColor;
 
-        return pageBuilder.toString();
-    }
+        final String byLine = StringUtils.getByLine(getContext(), String.format("<a href=\"%s\">%s</a>", feed.getLink(), feed.getTitle()), item.getAuthor());
 
-    /**
-     * Enum to convert some common iframe urls to simpler formats
-     */
-    private enum IframePattern {
-        YOUTUBE(Pattern.compile("(https?://)(?:www\\.)?youtube\\.com/embed/([a-zA-Z0-9-_]+)(?:\\?.*)?"), "youtu.be/", "%simg.youtube.com/vi/%s/sddefault.jpg"),
-        VIMEO(Pattern.compile("(https?://)(?:www\\.)?player\\.vimeo\\.com/video/([a-zA-Z0-9]+)"), "vimeo.com/", null);
-
-        final Pattern pattern;
-        final String baseUrl;
-        final String thumbUrl;
-
-        IframePattern(Pattern pattern, String baseUrl, String thumbUrl) {
-            this.pattern = pattern;
-            this.baseUrl = baseUrl;
-            this.thumbUrl = thumbUrl;
-        }
-    }
+        // leave some room for url and title
+        final StringBuilder pageBuilder = new StringBuilder(TEMPLATE_LENGTH + linkColor.length() + byLine.length() + body.length() + 512)
+                .append(TEMPLATE_START).append(linkColor)
+                .append(TEMPLATE_URL).append(item.getUrl())
+                .append(TEMPLATE_TITLE).append(item.getTitle())
+                .append(TEMPLATE_BYLINE).append(byLine)
+                .append(TEMPLATE_BODY).append(body);
 
-    private void prepareDocument(Document document) {
-        Elements iframes = document.getElementsByTag("iframe");
-        for(Element iframe: iframes) {
-            if(iframe.hasAttr("src")) {
-                String href = iframe.attr("src");
-                String html = String.format(Locale.US, videoLink, href, href);
-
-                // Check if url matches any known patterns
-                for (IframePattern iframePattern : IframePattern.values()) {
-                    Matcher matcher = iframePattern.pattern.matcher(href);
-                    if (matcher.matches()) {
-                        final String videoId = matcher.group(2);
-                        String urlPrefix = matcher.group(1);
-                        href = urlPrefix + iframePattern.baseUrl + videoId;
-                        // use thumbnail if available
-                        if (iframePattern.thumbUrl != null) {
-                            String thumbUrl = String.format(iframePattern.thumbUrl, urlPrefix, videoId);
-                            html = String.format(Locale.US, videoThumbLink, href, thumbUrl);
-                        }
-                        break;
-                    }
-                }
+        if(feedColors == null)
+            pageBuilder.append(TEMPLATE_CALLBACK);
 
-                iframe.replaceWith(Jsoup.parse(html).body().child(0));
-            } else {
-                iframe.remove();
-            }
-        }
+        return pageBuilder.append(TEMPLATE_END).toString();
     }
 }
@@ -42,7 +42,7 @@ public class ErrorAdapter extends LoadMoreAdapter {
     @Override
     public long getItemId(int position) {
         if(position == 0 && hasError())
-            return -1;
+            return ID_HEADER;
         else
             return super.getItemId(position - headerCount());
     }
@@ -59,6 +59,7 @@ public class ErrorAdapter extends LoadMoreAdapter {
         return super.getItemViewType(position - headerCount());
     }
 
+    @Override
     protected int headerCount() {
         return hasError() ? 1 : 0;
     }
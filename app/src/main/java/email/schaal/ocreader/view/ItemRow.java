@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.view;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import email.schaal.ocreader.model.Feed;
+import email.schaal.ocreader.model.Item;
+
+/**
+ * Immutable copy of the fields of an Item shown in the item list, so binding a row never
+ * touches the database.
+ */
+public class ItemRow {
+    private final long id;
+    private final String title;
+    private final String feedTitle;
+    private final long pubDate;
+    private final boolean unread;
+    private final boolean starred;
+    @Nullable private final String enclosureLink;
+
+    /** Fields of the feed needed to show its favicon and colors, feedId is -1 without feed **/
+    private final long feedId;
+    private final String feedUrl;
+    @Nullable private final String faviconLink;
+    private final boolean colorsGenerated;
+    @Nullable private final Integer textColor;
+    @Nullable private final Integer backgroundColor;
+
+    /**
+     * Copy the displayed fields of item
+     * @param item Item to copy, has to be accessed on the thread it belongs to
+     * @param feed feed of item, only read in the constructor
+     */
+    ItemRow(@NonNull Item item, @Nullable Feed feed) {
+        id = item.getId();
+        title = item.getTitle();
+        pubDate = item.getPubDate() != null ? item.getPubDate().getTime() : 0;
+        unread = item.isUnread();
+        starred = item.isStarred();
+        enclosureLink = item.getEnclosureLink();
+
+        if(feed != null) {
+            feedId = feed.getId();
+            feedTitle = feed.getTitle();
+            feedUrl = feed.getUrl();
+            faviconLink = feed.getFaviconLink();
+            colorsGenerated = feed.isColorsGenerated();
+            textColor = feed.getTextColor();
+            backgroundColor = feed.getBackgroundColor();
+        } else {
+            feedId = -1;
+            feedTitle = "";
+            feedUrl = null;
+            faviconLink = null;
+            colorsGenerated = false;
+            textColor = null;
+            backgroundColor = null;
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getFeedTitle() {
+        return feedTitle;
+    }
+
+    /**
+     * @return publication date in milliseconds since epoch
+     */
+    public long getPubDate() {
+        return pubDate;
+    }
+
+    public boolean isUnread() {
+        return unread;
+    }
+
+    public boolean isStarred() {
+        return starred;
+    }
+
+    @Nullable
+    public String getEnclosureLink() {
+        return enclosureLink;
+    }
+
+    /**
+     * @return a new unmanaged Feed with the copied fields, to load the favicon and colors with
+     */
+    @Nullable
+    public Feed createFeed() {
+        if(feedId == -1)
+            return null;
+
+        final Feed feed = new Feed();
+        feed.setId(feedId);
+        feed.setTitle(feedTitle);
+        feed.setUrl(feedUrl);
+        feed.setFaviconLink(faviconLink);
+        feed.setColorsGenerated(colorsGenerated);
+        feed.setTextColor(textColor);
+        feed.setBackgroundColor(backgroundColor);
+        return feed;
+    }
+
+    public long getFeedId() {
+        return feedId;
+    }
+
+    /**
+     * @return key of the favicon shown for this row, null if the feed has no favicon
+     */
+    @Nullable
+    public String getFaviconKey() {
+        return faviconLink;
+    }
+
+    /**
+     * @param other row to compare with
+     * @return true if both rows display the same content
+     */
+    public boolean hasSameContents(@NonNull ItemRow other) {
+        return pubDate == other.pubDate
+                && unread == other.unread
+                && starred == other.starred
+                && getFeedId() == other.getFeedId()
+                && TextUtils.equals(title, other.title)
+                && TextUtils.equals(feedTitle, other.feedTitle)
+                && TextUtils.equals(enclosureLink, other.enclosureLink)
+                && TextUtils.equals(getFaviconKey(), other.getFaviconKey());
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
+import android.support.v7.util.DiffUtil;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import email.schaal.ocreader.database.Queries;
+import email.schaal.ocreader.model.Feed;
+import email.schaal.ocreader.model.Item;
+import email.schaal.ocreader.model.TemporaryFeed;
+import io.realm.Realm;
+import io.realm.RealmList;
+import io.realm.RealmResults;
+import io.realm.Sort;
+
+/**
+ * Builds the ItemRows of the TemporaryFeed on a background thread.
+ *
+ * Only the rows around the scroll position are copied, in windows of {@link #WINDOW_SIZE} rows.
+ * The items are sorted once per load, the Realm of the background thread is kept open until the
+ * next load, so windows loaded later are sliced by position out of the same sorted snapshot.
+ * When the rows of the same view are reloaded, the difference to the current rows is calculated
+ * on the background thread too.
+ */
+public class ItemRowLoader {
+    private final static String TAG = ItemRowLoader.class.getName();
+
+    final static int WINDOW_SIZE = 100;
+
+    private final static ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /** Realm of the executor thread, kept open between loads to keep sortedItems valid **/
+    private static Realm realm;
+    /** Sorted items of the TemporaryFeed, in the version of realm **/
+    private static RealmResults<Item> sortedItems;
+    /** Loader and order sortedItems were sorted for **/
+    private static ItemRowLoader sortedItemsLoader;
+    private static Sort sortedItemsOrder;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /** Unmanaged copies of the feeds the rows copy their feed fields from, only used on the executor **/
+    private final LongSparseArray<Feed> feeds = new LongSparseArray<>();
+
+    /** Incremented for each load, windows of older loads are dropped **/
+    private volatile int generation = 0;
+
+    public interface Listener {
+        /**
+         * Called on the main thread with the first window of rows
+         * @param rows first rows of the list, replacing all previous rows
+         * @param totalCount number of rows in the list
+         */
+        void onRowsLoaded(@NonNull List<ItemRow> rows, int totalCount);
+
+        /**
+         * Called on the main thread with the rows following the rows loaded so far
+         * @param rows following rows, in list order
+         */
+        void onWindowLoaded(@NonNull List<ItemRow> rows);
+
+        /**
+         * Called on the main thread with the rows preceding the rows loaded so far
+         * @param rows preceding rows, in list order
+         */
+        void onWindowLoadedBefore(@NonNull List<ItemRow> rows);
+
+        /**
+         * Called on the main thread after a reload
+         * @param rows at least as many rows as passed to {@link #reload(Sort, List, int, Listener)}
+         * @param firstRowPosition position of the first row in the list
+         * @param totalCount number of rows in the list
+         * @param diffResult changes from the rows passed to {@link #reload(Sort, List, int, Listener)}
+         */
+        void onRowsReloaded(@NonNull List<ItemRow> rows, int firstRowPosition, int totalCount, @NonNull DiffUtil.DiffResult diffResult);
+    }
+
+    public interface IdsListener {
+        /**
+         * Called on the main thread with the ids of all items of the TemporaryFeed
+         */
+        void onIdsLoaded(@NonNull long[] ids);
+    }
+
+    /**
+     * Load the first window of rows of the TemporaryFeed, cancelling loads still in progress
+     * @param order sort order of the rows by publication date
+     * @param listener listener to deliver the rows to
+     */
+    public void load(@NonNull final Sort order, @NonNull final Listener listener) {
+        final int loadGeneration = ++generation;
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final RealmResults<Item> items = sortItems(order);
+                final int totalCount = items.size();
+                final List<ItemRow> rows = copyRows(items, 0, WINDOW_SIZE);
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(loadGeneration == generation)
+                            listener.onRowsLoaded(rows, totalCount);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the rows starting at position
+     * @param order sort order of the rows by publication date
+     * @param position position of the first row to load
+     * @param count number of rows to load, rounded up to whole windows
+     * @param listener listener to deliver the rows to
+     */
+    public void loadAfter(@NonNull final Sort order, final int position, int count, @NonNull final Listener listener) {
+        final int loadGeneration = generation;
+        final int windowCount = (count + WINDOW_SIZE - 1) / WINDOW_SIZE * WINDOW_SIZE;
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<ItemRow> rows = copyRows(getSortedItems(order), position, windowCount);
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(loadGeneration == generation)
+                            listener.onWindowLoaded(rows);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the count rows preceding position
+     * @param order sort order of the rows by publication date
+     * @param position position of the first row loaded so far
+     * @param count number of rows to load
+     * @param listener listener to deliver the rows to
+     */
+    public void loadBefore(@NonNull final Sort order, final int position, final int count, @NonNull final Listener listener) {
+        final int loadGeneration = generation;
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<ItemRow> rows = copyRows(getSortedItems(order), position - count, count);
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(loadGeneration == generation)
+                            listener.onWindowLoadedBefore(rows);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load as many rows of the TemporaryFeed as currently loaded and calculate the changes to the
+     * current rows, cancelling loads still in progress
+     * @param order sort order of the rows by publication date
+     * @param currentRows rows currently loaded, must not be modified until the listener is called
+     * @param firstRowPosition position of the first of currentRows, the rows before it are not reloaded
+     * @param listener listener to deliver the rows to
+     */
+    public void reload(@NonNull final Sort order, @NonNull final List<ItemRow> currentRows, final int firstRowPosition, @NonNull final Listener listener) {
+        final int loadGeneration = ++generation;
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final RealmResults<Item> items = sortItems(order);
+                final int totalCount = items.size();
+
+                int newFirstRowPosition = 0;
+                if(firstRowPosition > 0 && !currentRows.isEmpty()) {
+                    // continue from the first loaded row, even if it was removed in the meantime
+                    final ItemRow firstRow = currentRows.get(0);
+                    newFirstRowPosition = (int) Queries.countItemsBefore(getTemporaryFeed(realm).getItems(),
+                            order, new Date(firstRow.getPubDate()), firstRow.getId());
+                }
+                final List<ItemRow> rows = copyRows(items, newFirstRowPosition, Math.max(currentRows.size(), WINDOW_SIZE));
+
+                if(loadGeneration != generation)
+                    return;
+
+                final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffCallback(currentRows, rows), false);
+
+                final int rowsPosition = newFirstRowPosition;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(loadGeneration == generation)
+                            listener.onRowsReloaded(rows, rowsPosition, totalCount, diffResult);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the ids of all items of the TemporaryFeed, without copying the items
+     * @param listener listener to deliver the ids to
+     */
+    public void loadIds(@NonNull final IdsListener listener) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if(realm == null)
+                    realm = Realm.getDefaultInstance();
+
+                final RealmList<Item> items = getTemporaryFeed(realm).getItems();
+                final long[] ids = new long[items.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = items.get(i).getId();
+                }
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onIdsLoaded(ids);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drop all rows not yet delivered
+     */
+    public void cancel() {
+        generation++;
+    }
+
+    /**
+     * Drop all rows not yet delivered and close the Realm kept open for the sorted items
+     */
+    public void release() {
+        cancel();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(sortedItemsLoader == ItemRowLoader.this)
+                    closeRealm();
+            }
+        });
+    }
+
+    private void execute(final Runnable runnable) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to load item rows", e);
+                    closeRealm();
+                }
+            }
+        });
+    }
+
+    /**
+     * Open the current version of the Realm and sort the items of the TemporaryFeed, the sorted
+     * items are kept for the following windows. Call on the executor.
+     */
+    private RealmResults<Item> sortItems(Sort order) {
+        // the Realm of a thread without Looper only advances to the current version when reopened
+        closeRealm();
+        realm = Realm.getDefaultInstance();
+        feeds.clear();
+
+        sortedItems = Queries.sortItems(getTemporaryFeed(realm).getItems(), order);
+        sortedItemsLoader = this;
+        sortedItemsOrder = order;
+        return sortedItems;
+    }
+
+    /**
+     * @return the items sorted by the last load, sorted again if another loader or order was used since
+     */
+    private RealmResults<Item> getSortedItems(Sort order) {
+        if(sortedItems == null || sortedItemsLoader != this || sortedItemsOrder != order)
+            return sortItems(order);
+        return sortedItems;
+    }
+
+    private static void closeRealm() {
+        sortedItems = null;
+        sortedItemsLoader = null;
+        sortedItemsOrder = null;
+        if(realm != null) {
+            realm.close();
+            realm = null;
+        }
+    }
+
+    private static TemporaryFeed getTemporaryFeed(Realm realm) {
+        return realm.where(TemporaryFeed.class).findFirst();
+    }
+
+    /**
+     * Copy count items starting at position to rows
+     */
+    private List<ItemRow> copyRows(RealmResults<Item> items, int position, int count) {
+        final int start = Math.max(position, 0);
+        final int end = Math.min(position + count, items.size());
+        final List<ItemRow> rows = new ArrayList<>(Math.max(end - start, 0));
+
+        for(int i = start; i < end; i++) {
+            final Item item = items.get(i);
+            rows.add(new ItemRow(item, getFeedCopy(item)));
+        }
+        return rows;
+    }
+
+    private Feed getFeedCopy(Item item) {
+        Feed feed = feeds.get(item.getFeedId());
+        if(feed == null) {
+            final Feed managedFeed = item.getFeed();
+            if(managedFeed != null) {
+                feed = realm.copyFromRealm(managedFeed, 0);
+                feeds.put(feed.getId(), feed);
+            }
+        }
+        return feed;
+    }
+
+    private static class DiffCallback extends DiffUtil.Callback {
+        private final List<ItemRow> oldRows;
+        private final List<ItemRow> newRows;
+
+        DiffCallback(List<ItemRow> oldRows, List<ItemRow> newRows) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldRows.get(oldItemPosition).getId() == newRows.get(newItemPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldRows.get(oldItemPosition).hasSameContents(newRows.get(newItemPosition));
+        }
+    }
+}
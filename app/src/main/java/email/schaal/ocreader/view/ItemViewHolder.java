@@ -25,29 +25,31 @@ import android.content.res.TypedArray;
 import android.net.Uri;
 import android.os.Build;
 import android.support.annotation.ColorInt;
+import android.support.annotation.DrawableRes;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
-import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.squareup.picasso.Picasso;
+
 import email.schaal.ocreader.R;
-import email.schaal.ocreader.model.Feed;
-import email.schaal.ocreader.model.Item;
 import email.schaal.ocreader.util.FaviconLoader;
 import email.schaal.ocreader.util.FeedColors;
-import email.schaal.ocreader.util.StringUtils;
+import email.schaal.ocreader.util.TimeSpanFormatter;
 
 /**
  * RecyclerView.ViewHolder to display a feed Item.
  */
 public class ItemViewHolder extends RecyclerView.ViewHolder implements FaviconLoader.FeedColorsListener {
-    private static final String TAG = ItemViewHolder.class.getName();
-
     private final OnClickListener clickListener;
 
     @ColorInt private final int defaultFeedTextColor;
+    @DrawableRes private final int unselectedBackground;
+
+    private final FaviconLoader faviconLoader;
+    private final TimeSpanFormatter timeSpanFormatter;
 
     private final TextView textViewTitle;
     private final TextView textViewFeedTitle;
@@ -58,6 +60,14 @@ public class ItemViewHolder extends RecyclerView.ViewHolder implements FaviconLo
 
     private final View[] alphaViews;
 
+    private ItemRow item;
+    private int position;
+
+    /** Feed the favicon and feed colors were loaded for, to skip reloading them **/
+    private long boundFeedId = -1;
+    private Boolean selected = null;
+    private Boolean unread = null;
+
     public ItemViewHolder(final View itemView, final OnClickListener clickListener) {
         super(itemView);
         this.clickListener = clickListener;
@@ -71,13 +81,45 @@ public class ItemViewHolder extends RecyclerView.ViewHolder implements FaviconLo
 
         playButton = (ImageView) itemView.findViewById(R.id.play);
 
-        TypedArray typedArray = itemView.getContext().obtainStyledAttributes(new int[] { android.R.attr.textColorSecondary });
+        TypedArray typedArray = itemView.getContext().obtainStyledAttributes(new int[] { android.R.attr.textColorSecondary, R.attr.selectableItemBackground });
         try {
             defaultFeedTextColor = typedArray.getColor(0, 0);
+            //noinspection ResourceType
+            unselectedBackground = typedArray.getResourceId(1, 0);
         } finally {
             typedArray.recycle();
         }
 
+        faviconLoader = new FaviconLoader.Builder(faviconImageView, null).build();
+        timeSpanFormatter = TimeSpanFormatter.getInstance(itemView.getContext());
+
+        // The listeners are created once and act on the currently bound item
+        itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if(item != null)
+                    clickListener.onItemClick(item, position);
+            }
+        });
+
+        itemView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                if(item != null)
+                    clickListener.onItemLongClick(item, position);
+                return true;
+            }
+        });
+
+        playButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent playIntent = new Intent(Intent.ACTION_VIEW);
+                playIntent.setData(Uri.parse(item.getEnclosureLink()));
+                itemView.getContext().startActivity(playIntent);
+            }
+        });
+
         alphaViews = new View[] {
                 textViewTitle,
                 textViewFeedTitle,
@@ -88,66 +130,63 @@ public class ItemViewHolder extends RecyclerView.ViewHolder implements FaviconLo
         };
     }
 
-    public void bindItem(final Item item, final int position) {
+    public void bindItem(final ItemRow item, final int position) {
+        this.item = item;
+        this.position = position;
+
         textViewTitle.setText(item.getTitle());
+        textViewFeedTitle.setText(item.getFeedTitle());
 
-        Feed feed = item.getFeed();
-        if(feed != null) {
-            textViewFeedTitle.setText(feed.getTitle());
-        } else {
-            Log.w(TAG, "Feed == null");
-            textViewFeedTitle.setText("");
-        }
+        updateTime();
 
-        textViewTime.setText(StringUtils.getTimeSpanString(itemView.getContext(), item.getPubDate()));
+        // Favicon and colors are still shown from the last bind if the feed is the same
+        final long feedId = item.getFeedId();
+        if(feedId == -1 || feedId != boundFeedId) {
+            boundFeedId = feedId;
+            textViewFeedTitle.setTextColor(defaultFeedTextColor);
+            faviconLoader.load(item.createFeed(), this);
+        }
 
-        textViewFeedTitle.setTextColor(defaultFeedTextColor);
+        playButton.setVisibility(item.getEnclosureLink() != null ? View.VISIBLE : View.GONE);
 
-        new FaviconLoader.Builder(faviconImageView, feed).build().load(this);
+        setUnreadState(item.isUnread());
+        setStarredState(item.isStarred());
+    }
 
-        itemView.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
-                clickListener.onItemClick(item, position);
-            }
-        });
+    /**
+     * Update the shown time span since the bound item was published
+     */
+    public void updateTime() {
+        if(item != null)
+            textViewTime.setText(timeSpanFormatter.format(item.getPubDate()));
+    }
 
-        itemView.setOnLongClickListener(new View.OnLongClickListener() {
-            @Override
-            public boolean onLongClick(View v) {
-                clickListener.onItemLongClick(item, position);
-                return true;
-            }
-        });
+    /**
+     * Show an empty row while the row at position is loaded
+     * @param position position of the row
+     */
+    public void bindPlaceholder(final int position) {
+        this.item = null;
+        this.position = position;
 
-        if(item.getEnclosureLink() != null) {
-            playButton.setVisibility(View.VISIBLE);
-            playButton.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View view) {
-                    Intent playIntent = new Intent(Intent.ACTION_VIEW);
-                    playIntent.setData(Uri.parse(item.getEnclosureLink()));
-                    itemView.getContext().startActivity(playIntent);
-                }
-            });
-        } else {
-            playButton.setVisibility(View.GONE);
-            playButton.setOnClickListener(null);
-        }
+        textViewTitle.setText(null);
+        textViewFeedTitle.setText(null);
+        textViewTime.setText(null);
 
-        setUnreadState(item.isUnread());
-        setStarredState(item.isStarred());
+        boundFeedId = -1;
+        Picasso.with(itemView.getContext()).cancelRequest(faviconImageView);
+        faviconImageView.setImageDrawable(null);
 
+        playButton.setVisibility(View.GONE);
+        setStarredState(false);
     }
 
     public void setSelected(boolean selected) {
-        int backgroundResource = R.drawable.item_background;
-        if (!selected) {
-            int[] attrs = new int[]{R.attr.selectableItemBackground};
-            TypedArray typedArray = itemView.getContext().obtainStyledAttributes(attrs);
-            backgroundResource = typedArray.getResourceId(0, 0);
-            typedArray.recycle();
-        }
+        if(this.selected != null && this.selected == selected)
+            return;
+        this.selected = selected;
+
+        int backgroundResource = selected ? R.drawable.item_background : unselectedBackground;
 
         if(Build.VERSION.SDK_INT < 19)
             setBackgroundResource(itemView, backgroundResource);
@@ -164,6 +203,10 @@ public class ItemViewHolder extends RecyclerView.ViewHolder implements FaviconLo
     }
 
     private void setUnreadState(boolean unread) {
+        if(this.unread != null && this.unread == unread)
+            return;
+        this.unread = unread;
+
         float alpha = unread ? 1.0f : 0.5f;
         for(View view: alphaViews) {
             view.setAlpha(alpha);
@@ -185,7 +228,7 @@ public class ItemViewHolder extends RecyclerView.ViewHolder implements FaviconLo
     }
 
     public interface OnClickListener {
-        void onItemClick(Item item, int position);
-        void onItemLongClick(Item item, int position);
+        void onItemClick(ItemRow item, int position);
+        void onItemLongClick(ItemRow item, int position);
     }
 }
@@ -20,30 +20,41 @@
 
 package email.schaal.ocreader.view;
 
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import email.schaal.ocreader.R;
 import email.schaal.ocreader.database.Queries;
 import email.schaal.ocreader.model.AllUnreadFolder;
-import email.schaal.ocreader.model.Item;
 import email.schaal.ocreader.model.TemporaryFeed;
 import email.schaal.ocreader.model.TreeItem;
+import email.schaal.ocreader.util.TimeSpanFormatter;
 import email.schaal.ocreader.view.drawer.DrawerManager;
-import io.realm.OrderedRealmCollection;
 import io.realm.Realm;
-import io.realm.RealmResults;
 import io.realm.Sort;
 
 /**
  * Adapter for the RecyclerView to manage Items belonging to a certain TreeItem.
+ *
+ * Only the rows around the scroll position are loaded, rows not loaded yet or evicted again are
+ * shown as placeholders.
  */
-public class ItemsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
-    private OrderedRealmCollection<Item> items;
+public class ItemsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> implements ItemRowLoader.Listener {
+    private final static String TAG = ItemsAdapter.class.getName();
+
+    private final List<ItemRow> rows = new ArrayList<>();
+    private final ItemRowLoader rowLoader = new ItemRowLoader();
     protected final DrawerManager.State state;
-    private final Realm realm;
+    protected final Realm realm;
     private final ItemViewHolder.OnClickListener clickListener;
 
     public final static int VIEW_TYPE_ITEM = 0;
@@ -52,8 +63,59 @@ public class ItemsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     public final static int VIEW_TYPE_LOADMORE = 3;
     public final static int VIEW_TYPE_ERROR = 4;
 
+    /** Stable ids of the rows not showing an item, ids of items are positive **/
+    protected final static long ID_HEADER = Long.MIN_VALUE;
+    protected final static long ID_FOOTER = Long.MIN_VALUE + 1;
+    /** Placeholders count down from this id by their position **/
+    private final static long ID_PLACEHOLDER = -2;
+
+    /** Rows are loaded when a row closer than this to the first or last loaded row is bound **/
+    private final static int PREFETCH_DISTANCE = ItemRowLoader.WINDOW_SIZE / 2;
+
+    /** Rows furthest from the bound positions are evicted when more rows are loaded **/
+    private final static int MAX_LOADED_ROWS = 4 * ItemRowLoader.WINDOW_SIZE;
+
     private Sort order;
 
+    /** View the rows were loaded for, to only calculate differences when reloading the same view **/
+    private Class<?> rowsTreeItemClass;
+    private long rowsTreeItemId;
+    private Sort rowsOrder;
+
+    /** Number of rows in the list, rows around the loaded rows are loaded while scrolling **/
+    private int totalCount;
+    /** Position of the first loaded row **/
+    private int firstRowPosition;
+    /** Range of rows needed around the position bound last **/
+    private int requestedStart;
+    private int requestedEnd;
+    /** Number of rows requested by the pending load before the first row **/
+    private int requestedBeforeCount;
+    /** True while rows are loaded, the next window is only requested after the current rows arrived **/
+    private boolean loading;
+
+    /** Number of the last update of the TemporaryFeed started **/
+    private int temporaryFeedGeneration;
+    /** True until the last update of the TemporaryFeed finished **/
+    private boolean updatingTemporaryFeed;
+
+    /** Number of headers when the RecyclerView was last notified of all rows **/
+    private int notifiedHeaderCount;
+
+    private RecyclerView recyclerView;
+
+    /** Refreshes the time spans of the visible rows, without rebinding them **/
+    private final TimeSpanFormatter.OnTickListener tickListener = new TimeSpanFormatter.OnTickListener() {
+        @Override
+        public void onTick() {
+            for(int i = 0, childCount = recyclerView.getChildCount(); i < childCount; i++) {
+                RecyclerView.ViewHolder holder = recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+                if(holder instanceof ItemViewHolder)
+                    ((ItemViewHolder) holder).updateTime();
+            }
+        }
+    };
+
     public ItemsAdapter(Realm realm, DrawerManager.State state, ItemViewHolder.OnClickListener clickListener, Sort order) {
         this.realm = realm;
         this.state = state;
@@ -71,31 +133,244 @@ public class ItemsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     public void updateItems(boolean updateTemporaryFeed) {
-        if(state.getTreeItem() == null)
+        final TreeItem treeItem = state.getTreeItem();
+        if(treeItem == null)
             return;
 
+        final Class<?> treeItemClass = treeItem.getClass();
+        final long treeItemId = treeItem.getId();
+
         final TemporaryFeed temporaryFeed = realm.where(TemporaryFeed.class).findFirst();
 
-        if (updateTemporaryFeed || temporaryFeed.getId() != state.getTreeItem().getId()) {
-            realm.executeTransaction(new Realm.Transaction() {
+        loading = true;
+        if (updateTemporaryFeed || temporaryFeed.getId() != treeItemId) {
+            // The current rows stay visible until the TemporaryFeed was replaced and its rows are loaded
+            final int generation = ++temporaryFeedGeneration;
+            updatingTemporaryFeed = true;
+            Queries.updateTemporaryFeed(realm, treeItem, isOnlyUnread(), new Realm.Transaction.OnSuccess() {
+                @Override
+                public void onSuccess() {
+                    onTemporaryFeedUpdated(generation, treeItemClass, treeItemId);
+                }
+            }, new Realm.Transaction.OnError() {
                 @Override
-                public void execute(Realm realm) {
-                    RealmResults<Item> tempItems = Queries.getItems(realm, state.getTreeItem(), isOnlyUnread());
-                    temporaryFeed.setId(state.getTreeItem().getId());
-                    temporaryFeed.setTitle(state.getTreeItem().getTitle());
-                    temporaryFeed.getItems().clear();
-                    if (tempItems != null) {
-                        temporaryFeed.getItems().addAll(tempItems);
-                    }
+                public void onError(Throwable error) {
+                    Log.e(TAG, "Failed to update temporary feed", error);
+                    onTemporaryFeedUpdated(generation, treeItemClass, treeItemId);
                 }
             });
+        } else if(!updatingTemporaryFeed) {
+            loadRows(treeItemClass, treeItemId);
+        }
+        // otherwise the rows are loaded when the pending update of the TemporaryFeed finished
+    }
+
+    private void onTemporaryFeedUpdated(int generation, Class<?> treeItemClass, long treeItemId) {
+        // Only the last update is shown, earlier updates were replaced by it
+        if(generation == temporaryFeedGeneration) {
+            updatingTemporaryFeed = false;
+            loadRows(treeItemClass, treeItemId);
+        }
+    }
+
+    private void loadRows(Class<?> treeItemClass, long treeItemId) {
+        if(!rows.isEmpty() && order == rowsOrder && treeItemClass == rowsTreeItemClass && treeItemId == rowsTreeItemId) {
+            // Same view, only rebind the rows that changed
+            rowLoader.reload(order, new ArrayList<>(rows), firstRowPosition, this);
+        } else {
+            rowsTreeItemClass = treeItemClass;
+            rowsTreeItemId = treeItemId;
+            rowsOrder = order;
+            // The current rows stay visible until the first window of the new rows is loaded
+            rowLoader.load(order, this);
+        }
+    }
+
+    @Override
+    public void onRowsLoaded(@NonNull List<ItemRow> loadedRows, int newTotalCount) {
+        loading = false;
+        requestedStart = 0;
+        requestedEnd = 0;
+        setAllRows(loadedRows, 0, newTotalCount);
+    }
+
+    @Override
+    public void onWindowLoaded(@NonNull List<ItemRow> loadedRows) {
+        loading = false;
+
+        final int positionStart = firstRowPosition + rows.size();
+        if(loadedRows.isEmpty() || positionStart + loadedRows.size() > totalCount) {
+            // Items were added or removed since the list was loaded, reload to get the current count
+            updateItems(false);
+            return;
+        }
+
+        rows.addAll(loadedRows);
+        notifyItemRangeChanged(headerCount() + positionStart, loadedRows.size());
+
+        evictFirstRows(Math.min(rows.size() - MAX_LOADED_ROWS, requestedStart - firstRowPosition));
+        loadRequestedRows();
+    }
+
+    @Override
+    public void onWindowLoadedBefore(@NonNull List<ItemRow> loadedRows) {
+        loading = false;
+
+        if(loadedRows.size() != requestedBeforeCount) {
+            // Items were added or removed since the list was loaded, the positions changed
+            updateItems(false);
+            return;
+        }
+
+        rows.addAll(0, loadedRows);
+        firstRowPosition -= loadedRows.size();
+        notifyItemRangeChanged(headerCount() + firstRowPosition, loadedRows.size());
+
+        evictLastRows(Math.min(rows.size() - MAX_LOADED_ROWS, firstRowPosition + rows.size() - requestedEnd));
+        loadRequestedRows();
+    }
+
+    @Override
+    public void onRowsReloaded(@NonNull List<ItemRow> loadedRows, int newFirstRowPosition, int newTotalCount, @NonNull DiffUtil.DiffResult diffResult) {
+        loading = false;
+
+        if(loadedRows.isEmpty() && newTotalCount > 0) {
+            // All rows from the first loaded row on were removed, start over
+            loading = true;
+            rowLoader.load(order, this);
+            return;
+        }
+
+        if(totalCount == 0 || newTotalCount == 0 || headerCount() != notifiedHeaderCount || newFirstRowPosition != firstRowPosition) {
+            // the empty state or a header is shown instead, or rows before the loaded rows changed
+            setAllRows(loadedRows, newFirstRowPosition, newTotalCount);
+            loadRequestedRows();
+            return;
         }
 
-        items = temporaryFeed.getItems().sort(Item.PUB_DATE, order);
+        final int oldLoadedCount = rows.size();
+        final int oldTotalCount = totalCount;
+        final long lastId = firstRowPosition + oldLoadedCount == oldTotalCount ? rows.get(oldLoadedCount - 1).getId() : RecyclerView.NO_ID;
+
+        rows.clear();
+        rows.addAll(loadedRows);
+        totalCount = newTotalCount;
+
+        final int offset = headerCount() + firstRowPosition;
+        diffResult.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(offset + position, count);
+            }
 
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(offset + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(offset + fromPosition, offset + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(offset + position, count, payload);
+            }
+        });
+
+        // Rows not loaded yet follow the loaded rows
+        final int oldPendingCount = oldTotalCount - firstRowPosition - oldLoadedCount;
+        final int pendingCount = totalCount - firstRowPosition - rows.size();
+        if(pendingCount > oldPendingCount)
+            notifyItemRangeInserted(offset + rows.size() + oldPendingCount, pendingCount - oldPendingCount);
+        else if(pendingCount < oldPendingCount)
+            notifyItemRangeRemoved(offset + rows.size() + pendingCount, oldPendingCount - pendingCount);
+
+        // Rebind the rows entering and leaving the last position, it uses a different view type
+        final int lastIndex = totalCount - 1 - firstRowPosition;
+        if(lastId == RecyclerView.NO_ID) {
+            if(totalCount != oldTotalCount) {
+                notifyItemChanged(offset + lastIndex);
+                if(pendingCount > oldPendingCount)
+                    notifyItemChanged(offset + rows.size() + oldPendingCount - 1);
+            }
+        } else if(lastIndex >= rows.size() || rows.get(lastIndex).getId() != lastId) {
+            notifyItemChanged(offset + lastIndex);
+            for(int i = Math.min(lastIndex, rows.size()) - 1; i >= 0; i--) {
+                if(rows.get(i).getId() == lastId) {
+                    notifyItemChanged(offset + i);
+                    break;
+                }
+            }
+        }
+
+        loadRequestedRows();
+    }
+
+    private void setAllRows(List<ItemRow> loadedRows, int newFirstRowPosition, int newTotalCount) {
+        rows.clear();
+        rows.addAll(loadedRows);
+        firstRowPosition = newFirstRowPosition;
+        totalCount = newTotalCount;
+        notifiedHeaderCount = headerCount();
         notifyDataSetChanged();
     }
 
+    /**
+     * Load the rows around position, plus a margin to load them before they are shown
+     * @param position position of the bound row
+     */
+    private void requestRows(int position) {
+        requestedStart = Math.max(0, position - PREFETCH_DISTANCE);
+        requestedEnd = Math.min(position + PREFETCH_DISTANCE + 1, totalCount);
+        loadRequestedRows();
+    }
+
+    private void loadRequestedRows() {
+        if(loading || rows.isEmpty())
+            return;
+
+        final int loadedEnd = firstRowPosition + rows.size();
+        if(requestedEnd > loadedEnd) {
+            loading = true;
+            rowLoader.loadAfter(order, loadedEnd, requestedEnd - loadedEnd, this);
+        } else if(requestedStart < firstRowPosition) {
+            loading = true;
+            // load whole windows, but not more rows than there are before the first row
+            final int windowCount = (firstRowPosition - requestedStart + ItemRowLoader.WINDOW_SIZE - 1) / ItemRowLoader.WINDOW_SIZE;
+            requestedBeforeCount = Math.min(firstRowPosition, windowCount * ItemRowLoader.WINDOW_SIZE);
+            rowLoader.loadBefore(order, firstRowPosition, requestedBeforeCount, this);
+        }
+    }
+
+    /**
+     * Replace the first count rows by placeholders
+     */
+    private void evictFirstRows(int count) {
+        if(count <= 0)
+            return;
+
+        final int positionStart = firstRowPosition;
+        rows.subList(0, count).clear();
+        firstRowPosition += count;
+        // the evicted rows may still be cached by the RecyclerView
+        notifyItemRangeChanged(headerCount() + positionStart, count);
+    }
+
+    /**
+     * Replace the last count rows by placeholders
+     */
+    private void evictLastRows(int count) {
+        if(count <= 0)
+            return;
+
+        final int positionStart = firstRowPosition + rows.size() - count;
+        rows.subList(rows.size() - count, rows.size()).clear();
+        // the evicted rows may still be cached by the RecyclerView
+        notifyItemRangeChanged(headerCount() + positionStart, count);
+    }
+
     @Override
     public int getItemViewType(int position) {
         if(hasItems()) {
@@ -108,7 +383,7 @@ public class ItemsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     private boolean hasItems() {
-        return items != null && items.size() > 0;
+        return totalCount > 0;
     }
 
     @Override
@@ -132,11 +407,44 @@ public class ItemsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     @Override
     public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
         if(holder instanceof ItemViewHolder) {
-            Item item = items.get(position);
-            ((ItemViewHolder) holder).bindItem(item, position);
+            final int index = position - firstRowPosition;
+            if(index >= 0 && index < rows.size())
+                ((ItemViewHolder) holder).bindItem(rows.get(index), position);
+            else
+                ((ItemViewHolder) holder).bindPlaceholder(position);
+            requestRows(position);
         }
     }
 
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        stopTimeUpdates();
+        rowLoader.release();
+        this.recyclerView = null;
+        super.onDetachedFromRecyclerView(recyclerView);
+    }
+
+    /**
+     * Refresh the time spans of the visible rows now and once a minute until {@link #stopTimeUpdates()}
+     */
+    public void startTimeUpdates() {
+        if(recyclerView != null) {
+            tickListener.onTick();
+            TimeSpanFormatter.getInstance(recyclerView.getContext()).addOnTickListener(tickListener);
+        }
+    }
+
+    public void stopTimeUpdates() {
+        if(recyclerView != null)
+            TimeSpanFormatter.getInstance(recyclerView.getContext()).removeOnTickListener(tickListener);
+    }
+
     @Override
     public int getItemCount() {
         int itemCount = getActualItemCount();
@@ -146,15 +454,31 @@ public class ItemsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     private int getActualItemCount() {
-        return items != null ? items.size() : 0;
+        return totalCount;
     }
 
     @Override
     public long getItemId(int position) {
-        if(hasItems() && position < getActualItemCount())
-            return items.get(position).getId();
+        final int index = position - firstRowPosition;
+        if(index >= 0 && index < rows.size())
+            return rows.get(index).getId();
         else
-            return -1;
+            return ID_PLACEHOLDER - position;
+    }
+
+    /**
+     * Load the ids of all items in the list on a background thread
+     * @param listener listener to deliver the ids to
+     */
+    protected void loadItemIds(ItemRowLoader.IdsListener listener) {
+        rowLoader.loadIds(listener);
+    }
+
+    /**
+     * @return number of rows shown before the item rows
+     */
+    protected int headerCount() {
+        return 0;
     }
 
     private boolean isOnlyUnread() {
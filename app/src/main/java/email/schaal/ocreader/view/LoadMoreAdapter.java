@@ -58,8 +58,8 @@ public class LoadMoreAdapter extends ItemsAdapter {
 
     @Override
     public long getItemId(int position) {
-        if(position == getItemCount() && hasLoadMore())
-            return -1;
+        if(hasLoadMore() && position == super.getItemCount())
+            return ID_FOOTER;
         else {
             return super.getItemId(position);
         }
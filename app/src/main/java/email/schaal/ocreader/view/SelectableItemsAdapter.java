@@ -1,19 +1,27 @@
 package email.schaal.ocreader.view;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
-import android.util.SparseArray;
 
-import email.schaal.ocreader.model.Item;
+import email.schaal.ocreader.util.LongSet;
 import email.schaal.ocreader.view.drawer.DrawerManager;
 import io.realm.Realm;
 import io.realm.Sort;
 
 /**
- * Make item viewholders selectable
+ * Make item viewholders selectable. The selection is kept as the ids of the selected items.
  */
 public class SelectableItemsAdapter extends ErrorAdapter {
-    private final SparseArray<Item> selectedItems = new SparseArray<>();
+    private final LongSet selectedIds = new LongSet();
+
+    /** State of the item selected first, decides which actions are shown **/
+    private Boolean firstSelectedUnread = null;
+    private Boolean firstSelectedStarred = null;
+
+    public interface OnSelectionChangedListener {
+        void onSelectionChanged(int selectedItemsCount);
+    }
 
     public SelectableItemsAdapter(Realm realm, DrawerManager.State state, ItemViewHolder.OnClickListener clickListener, Sort order, OnLoadMoreListener loadMoreListener) {
         super(realm, state, clickListener, order, loadMoreListener);
@@ -22,51 +30,70 @@ public class SelectableItemsAdapter extends ErrorAdapter {
     @Override
     public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
         super.onBindViewHolder(holder, position);
-        if(holder instanceof ItemViewHolder)
-            ((ItemViewHolder) holder).setSelected(selectedItems.indexOfKey(position) >= 0);
+        if(holder instanceof ItemViewHolder) {
+            // placeholders have negative ids, which are never selected
+            ((ItemViewHolder) holder).setSelected(selectedIds.contains(getItemId(position)));
+        }
     }
 
     public void clearSelection() {
-        selectedItems.clear();
+        selectedIds.clear();
+        firstSelectedUnread = null;
+        firstSelectedStarred = null;
         notifyDataSetChanged();
     }
 
     @Nullable
     public Boolean firstSelectedUnread() {
-        if(selectedItems.size() > 0) {
-            return selectedItems.valueAt(0).isUnread();
-        } else {
-            return null;
-        }
+        return selectedIds.isEmpty() ? null : firstSelectedUnread;
     }
 
     @Nullable
     public Boolean firstSelectedStarred() {
-        if(selectedItems.size() > 0) {
-            return selectedItems.valueAt(0).isStarred();
-        } else {
-            return null;
-        }
+        return selectedIds.isEmpty() ? null : firstSelectedStarred;
     }
 
     public int getSelectedItemsCount() {
-        return selectedItems.size();
+        return selectedIds.size();
     }
 
-    public Item[] getSelectedItems() {
-        Item[] itemsIterable = new Item[selectedItems.size()];
-        for (int index = 0; index < selectedItems.size(); index++) {
-            itemsIterable[index] = selectedItems.valueAt(index);
-        }
-        return itemsIterable;
+    /**
+     * @return ids of the selected items in ascending order, the items could have been deleted in the meantime
+     */
+    @NonNull
+    public long[] getSelectedItemIds() {
+        return selectedIds.toArray();
     }
 
-    public void toggleSelection(Item item, int position) {
-        if(selectedItems.indexOfKey(position + headerCount()) >= 0) {
-            selectedItems.remove(position + headerCount());
-        } else {
-            selectedItems.put(position + headerCount(), item);
+    public void toggleSelection(ItemRow item, int position) {
+        if(!selectedIds.remove(item.getId())) {
+            if(selectedIds.isEmpty()) {
+                firstSelectedUnread = item.isUnread();
+                firstSelectedStarred = item.isStarred();
+            }
+            selectedIds.add(item.getId());
         }
         notifyItemChanged(position + headerCount());
     }
+
+    /**
+     * Select all items in the list, including the rows not loaded yet
+     * @param listener called when the items are selected
+     */
+    public void selectAll(@Nullable final OnSelectionChangedListener listener) {
+        loadItemIds(new ItemRowLoader.IdsListener() {
+            @Override
+            public void onIdsLoaded(@NonNull long[] ids) {
+                // keep the state of an item selected before
+                if(selectedIds.isEmpty()) {
+                    firstSelectedUnread = true;
+                    firstSelectedStarred = false;
+                }
+                selectedIds.setAll(ids);
+                notifyItemRangeChanged(0, getItemCount());
+                if(listener != null)
+                    listener.onSelectionChanged(selectedIds.size());
+            }
+        });
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Daniel Schaal <daniel@schaal.email>
+ *
+ * This file is part of OCReader.
+ *
+ * OCReader is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OCReader is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OCReader.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package email.schaal.ocreader.view;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayDeque;
+
+import email.schaal.ocreader.R;
+
+/**
+ * Keeps a few ArticleWebViews alive so paging through articles does not inflate a new WebView
+ * (and start a new renderer) for every page.
+ *
+ * Must only be used from the main thread.
+ */
+public class WebViewPool {
+    private static final String TAG = WebViewPool.class.getName();
+
+    /** Maximum number of idle views, views released while the pool is full are destroyed **/
+    private static final int MAX_IDLE = 2;
+
+    private final Context context;
+    private final ArrayDeque<ArticleWebView> idleViews = new ArrayDeque<>(MAX_IDLE);
+
+    private boolean warmupScheduled = false;
+    private boolean destroyed = false;
+
+    private final MessageQueue.IdleHandler warmupHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            warmupScheduled = false;
+            if(!destroyed && idleViews.isEmpty())
+                idleViews.add(createView());
+            return false;
+        }
+    };
+
+    public WebViewPool(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Get an idle view from the pool, or create a new one if none is available. Schedules creating
+     * a spare view when the main thread is idle, so it is ready for the next page.
+     * @return a view not attached to any parent
+     */
+    @NonNull
+    public ArticleWebView acquire() {
+        ArticleWebView webView = idleViews.poll();
+        if(webView == null) {
+            webView = createView();
+        } else {
+            webView.onResume();
+        }
+
+        if(idleViews.isEmpty() && !warmupScheduled) {
+            warmupScheduled = true;
+            Looper.myQueue().addIdleHandler(warmupHandler);
+        }
+
+        return webView;
+    }
+
+    /**
+     * Return a view to the pool
+     * @param webView view previously returned by {@link #acquire()}
+     */
+    public void release(@NonNull ArticleWebView webView) {
+        ViewGroup parent = (ViewGroup) webView.getParent();
+        if(parent != null)
+            parent.removeView(webView);
+
+        if(destroyed || idleViews.size() >= MAX_IDLE) {
+            webView.destroy();
+        } else {
+            webView.clear();
+            webView.onPause();
+            idleViews.add(webView);
+        }
+    }
+
+    /**
+     * Destroy all idle views, views released afterwards are destroyed immediately
+     */
+    public void destroy() {
+        destroyed = true;
+        if(warmupScheduled)
+            Looper.myQueue().removeIdleHandler(warmupHandler);
+
+        ArticleWebView webView;
+        while((webView = idleViews.poll()) != null) {
+            webView.destroy();
+        }
+    }
+
+    private ArticleWebView createView() {
+        ArticleWebView webView = (ArticleWebView) LayoutInflater.from(context).inflate(R.layout.view_article, null, false);
+
+        // Using software rendering to prevent frozen or blank webviews
+        // See https://code.google.com/p/chromium/issues/detail?id=501901
+        if(Build.HARDWARE.equals("qcom") && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            Log.w(TAG, "Using software rendering");
+            webView.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+        }
+
+        return webView;
+    }
+}
@@ -20,68 +20,267 @@
 
 package email.schaal.ocreader.view.drawer;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
 
 import com.mikepenz.materialdrawer.Drawer;
 import com.mikepenz.materialdrawer.holder.StringHolder;
 import com.mikepenz.materialdrawer.model.interfaces.Badgeable;
 import com.mikepenz.materialdrawer.model.interfaces.IDrawerItem;
+import com.mikepenz.materialdrawer.model.interfaces.Nameable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import email.schaal.ocreader.database.Queries;
 import email.schaal.ocreader.model.TreeItem;
 import io.realm.Realm;
 
 /**
  * Base class for the DrawerAdapter used by the Drawers in {@link email.schaal.ocreader.ListActivity}
+ *
+ * Drawer items are identified by their TreeItem, see {@link TreeItemDrawerItem#getIdentifier(TreeItem)}.
+ * Reloading reuses the items already shown and only inserts, removes or rebinds the items that
+ * changed.
+ *
+ * The queries and counts for the drawer run on a background thread against its own Realm, the
+ * result is handed to the main thread as an immutable list of {@link Entry}.
  */
 abstract class BaseDrawerManager {
+    private final static String TAG = BaseDrawerManager.class.getName();
+
+    private final static ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Context context;
     private final Drawer drawer;
 
-    public BaseDrawerManager(Drawer drawer) {
+    /** Incremented for each reload, results of older reloads are dropped **/
+    private int generation = 0;
+
+    /** Items shown before the current reload, by identifier **/
+    private final LongSparseArray<IDrawerItem> shownItems = new LongSparseArray<>();
+    /** Items whose badge, name or selection changed during the current reload **/
+    private final Set<IDrawerItem> changedItems = new HashSet<>();
+
+    public BaseDrawerManager(Context context, Drawer drawer) {
+        this.context = context;
         this.drawer = drawer;
     }
 
-    public final void reload(Realm realm, boolean showOnlyUnread) {
-        drawer.setItems(reloadDrawerItems(realm, showOnlyUnread));
+    /**
+     * A TreeItem shown in the drawer, with its unread count
+     */
+    static class Entry {
+        /** Unmanaged copy or special folder, usable on any thread **/
+        final TreeItem item;
+        final int count;
+
+        Entry(TreeItem item, int count) {
+            this.item = item;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Loads the entries of a drawer on the background thread
+     */
+    interface EntryLoader {
+        List<Entry> load(Realm realm);
     }
 
-    protected abstract List<IDrawerItem> reloadDrawerItems(Realm realm, boolean showOnlyUnread);
+    /**
+     * Reload the drawer in the background, the drawer is updated when the result is ready
+     * @param showOnlyUnread whether to show only items with unread articles
+     */
+    public final void reload(boolean showOnlyUnread) {
+        final int reloadGeneration = ++generation;
+        final EntryLoader entryLoader = getEntryLoader(showOnlyUnread);
 
-    public void updateUnreadCount(Realm realm, boolean showOnlyUnread) {
-        if(showOnlyUnread) {
-            reload(realm, true);
-        } else {
-            for (IDrawerItem drawerItem : drawer.getDrawerItems()) {
-                if (drawerItem instanceof Badgeable) {
-                    Badgeable badgeable = (Badgeable) drawerItem;
-                    Integer count = Queries.getCount(realm, (TreeItem) drawerItem.getTag());
-
-                    if (count <= 0) {
-                        updateBadge(badgeable, null);
-                    } else {
-                        updateBadge(badgeable, String.valueOf(count));
-                    }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Realm backgroundRealm = null;
+                try {
+                    backgroundRealm = Realm.getDefaultInstance();
+                    final List<Entry> entries = Collections.unmodifiableList(entryLoader.load(backgroundRealm));
+
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (reloadGeneration == generation)
+                                apply(entries);
+                        }
+                    });
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to load drawer", e);
+                } finally {
+                    if(backgroundRealm != null)
+                        backgroundRealm.close();
                 }
             }
+        });
+    }
+
+    /**
+     * Called on the main thread to capture the state needed to load the entries
+     * @param showOnlyUnread whether to show only items with unread articles
+     * @return loader to run on the background thread
+     */
+    protected abstract EntryLoader getEntryLoader(boolean showOnlyUnread);
+
+    /**
+     * Called on the main thread to create the drawer items for the loaded entries
+     * @param entries entries returned by the EntryLoader
+     * @return drawer items to show
+     */
+    protected abstract List<IDrawerItem> getDrawerItems(List<Entry> entries);
+
+    public void updateUnreadCount(boolean showOnlyUnread) {
+        reload(showOnlyUnread);
+    }
+
+    private void apply(List<Entry> entries) {
+        final List<IDrawerItem> currentItems = new ArrayList<>(drawer.getDrawerItems());
+
+        shownItems.clear();
+        for(IDrawerItem drawerItem: currentItems) {
+            shownItems.put(drawerItem.getIdentifier(), drawerItem);
+        }
+
+        try {
+            applyDrawerItems(currentItems, getDrawerItems(entries));
+        } finally {
+            shownItems.clear();
+            changedItems.clear();
+        }
+    }
+
+    /**
+     * Get the drawer item for entry, reusing the item already shown in the drawer
+     * @param entry TreeItem and unread count to show
+     * @param selected whether the item is selected
+     * @return the drawer item to show
+     */
+    protected TreeItemDrawerItem getDrawerItem(Entry entry, boolean selected) {
+        final TreeItem item = entry.item;
+        final int count = entry.count;
+
+        final IDrawerItem shownItem = shownItems.get(TreeItemDrawerItem.getIdentifier(item));
+
+        if(shownItem instanceof TreeItemDrawerItem) {
+            final TreeItemDrawerItem drawerItem = (TreeItemDrawerItem) shownItem;
+            drawerItem.withTag(item);
+            updateName(drawerItem, item.getTitle());
+            updateBadge(drawerItem, count);
+            updateSelected(drawerItem, selected);
+            return drawerItem;
+        } else {
+            final TreeItemDrawerItem drawerItem = new TreeItemDrawerItem(context, item);
+            drawerItem.withBadge(count);
+            drawerItem.withSetSelected(selected);
+            return drawerItem;
+        }
+    }
+
+    /**
+     * Get a drawer item not representing a TreeItem, reusing the item already shown in the drawer
+     * @param drawerItem new drawer item, with a unique identifier
+     * @return the item already shown, updated to the name of drawerItem, or drawerItem
+     */
+    protected IDrawerItem getDrawerItem(IDrawerItem drawerItem) {
+        final IDrawerItem shownItem = shownItems.get(drawerItem.getIdentifier());
+        if(shownItem != null && shownItem.getClass() == drawerItem.getClass()) {
+            if(shownItem instanceof Nameable && drawerItem instanceof Nameable)
+                updateName((Nameable) shownItem, ((Nameable) drawerItem).getName());
+            return shownItem;
+        }
+        return drawerItem;
+    }
+
+    /**
+     * Transform the items shown in the drawer into newItems
+     */
+    private void applyDrawerItems(List<IDrawerItem> currentItems, List<IDrawerItem> newItems) {
+        final Set<Long> newIdentifiers = new HashSet<>(newItems.size());
+        for(IDrawerItem drawerItem: newItems) {
+            newIdentifiers.add(drawerItem.getIdentifier());
+        }
+
+        // Remove the items not shown anymore
+        for(int i = currentItems.size() - 1; i >= 0; i--) {
+            final IDrawerItem drawerItem = currentItems.get(i);
+            if(!newIdentifiers.contains(drawerItem.getIdentifier())) {
+                drawer.removeItem(drawerItem.getIdentifier());
+                currentItems.remove(i);
+            }
+        }
+
+        for(int position = 0; position < newItems.size(); position++) {
+            final IDrawerItem newItem = newItems.get(position);
+
+            if(position < currentItems.size() && currentItems.get(position) == newItem) {
+                if(changedItems.contains(newItem))
+                    drawer.updateItem(newItem);
+                continue;
+            }
+
+            // Inserted or moved item
+            final int currentPosition = currentItems.indexOf(newItem);
+            if(currentPosition >= 0) {
+                drawer.removeItem(newItem.getIdentifier());
+                currentItems.remove(currentPosition);
+            }
+            drawer.addItemAtPosition(newItem, position);
+            currentItems.add(position, newItem);
         }
     }
 
-    private boolean compareBadges(@Nullable StringHolder lhs, @Nullable StringHolder rhs) {
-        String l = lhs != null ? lhs.getText() : null;
-        String r = rhs != null ? rhs.getText() : null;
+    private void updateName(Nameable nameable, @Nullable StringHolder name) {
+        final String oldName = nameable.getName() != null ? nameable.getName().getText() : null;
+        final String newName = name != null ? name.getText() : null;
+        if(!compareStrings(oldName, newName)) {
+            nameable.withName(name);
+            changedItems.add((IDrawerItem) nameable);
+        }
+    }
 
-        return l == null ? r == null : l.equals(r);
+    private void updateName(Nameable nameable, String name) {
+        updateName(nameable, new StringHolder(name));
     }
 
-    private void updateBadge(@NonNull Badgeable badgeable, @Nullable String badgeString) {
+    private void updateBadge(@NonNull Badgeable badgeable, int count) {
         StringHolder oldBadge = badgeable.getBadge();
-        StringHolder newBadge = new StringHolder(badgeString);
-        if (!compareBadges(oldBadge, newBadge)) {
-            badgeable.withBadge(newBadge);
-            drawer.updateItem((IDrawerItem)badgeable);
+        String newBadge = count > 0 ? String.valueOf(count) : "";
+        if (!compareStrings(oldBadge != null ? oldBadge.getText() : null, newBadge)) {
+            badgeable.withBadge(new StringHolder(newBadge));
+            changedItems.add((IDrawerItem) badgeable);
+        }
+    }
+
+    private void updateSelected(IDrawerItem drawerItem, boolean selected) {
+        if(drawerItem.isSelected() != selected) {
+            drawerItem.withSetSelected(selected);
+            changedItems.add(drawerItem);
         }
     }
+
+    private boolean compareStrings(@Nullable String lhs, @Nullable String rhs) {
+        // an empty badge is the same as no badge
+        if(lhs == null)
+            lhs = "";
+        if(rhs == null)
+            rhs = "";
+        return lhs.equals(rhs);
+    }
 }
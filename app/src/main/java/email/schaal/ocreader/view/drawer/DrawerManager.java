@@ -22,17 +22,17 @@ package email.schaal.ocreader.view.drawer;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
 import android.support.annotation.Nullable;
 
 import com.mikepenz.materialdrawer.Drawer;
 import com.mikepenz.materialdrawer.interfaces.OnCheckedChangeListener;
-import com.mikepenz.materialdrawer.model.PrimaryDrawerItem;
 import com.mikepenz.materialdrawer.model.SecondarySwitchDrawerItem;
 import com.mikepenz.materialdrawer.model.SectionDrawerItem;
-import com.mikepenz.materialdrawer.model.interfaces.Badgeable;
 import com.mikepenz.materialdrawer.model.interfaces.IDrawerItem;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import email.schaal.ocreader.Preferences;
@@ -44,6 +44,8 @@ import email.schaal.ocreader.model.Folder;
 import email.schaal.ocreader.model.StarredFolder;
 import email.schaal.ocreader.model.TreeItem;
 import io.realm.Realm;
+import io.realm.RealmChangeListener;
+import io.realm.RealmObject;
 import io.realm.RealmResults;
 
 /**
@@ -52,6 +54,13 @@ import io.realm.RealmResults;
 public class DrawerManager {
     private static final String TAG = DrawerManager.class.getName();
 
+    /** Identifiers of the drawer items not representing a TreeItem, TreeItem identifiers are >= 0 or the ids of the special folders **/
+    private static final long ONLY_UNREAD_IDENTIFIER = -100;
+    private static final long SECTION_IDENTIFIER = -101;
+
+    private final Context context;
+    /** Realm of the main thread, the selected items are looked up on it **/
+    private final Realm realm;
     private final State state;
 
     private final SubscriptionDrawerManager startAdapter;
@@ -60,11 +69,44 @@ public class DrawerManager {
     private final AllUnreadFolder allUnreadFolder;
     private final StarredFolder starredFolder;
 
-    public DrawerManager(Context context, Drawer startDrawer, Drawer endDrawer, boolean onlyUnread, OnCheckedChangeListener onlyUnreadChangeListener) {
+    private final Handler handler = new Handler();
+
+    private boolean showOnlyUnread;
+
+    /** Results the drawers listen to, see {@link #startListening(Realm)} **/
+    private RealmResults<Feed> listeningFeeds;
+    private RealmResults<Folder> listeningFolders;
+
+    /** Fingerprint of the fields shown in the drawers when they were last reloaded **/
+    private long drawerFingerprint;
+
+    /**
+     * Realm notifies about every commit, e.g. when only items changed. The drawers are only
+     * reloaded if a field they show changed.
+     */
+    private final Runnable reloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(listeningFeeds == null || !listeningFeeds.isLoaded() || !listeningFolders.isLoaded())
+                return;
+
+            final long fingerprint = getDrawerFingerprint();
+            if(fingerprint != drawerFingerprint) {
+                drawerFingerprint = fingerprint;
+                reloadAdapters(showOnlyUnread);
+            }
+        }
+    };
+
+    public DrawerManager(Context context, Realm realm, Drawer startDrawer, Drawer endDrawer, boolean onlyUnread, OnCheckedChangeListener onlyUnreadChangeListener) {
+        this.context = context.getApplicationContext();
+        this.realm = realm;
+
         allUnreadFolder = new AllUnreadFolder(context);
         starredFolder = new StarredFolder(context);
 
         state = new State();
+        showOnlyUnread = onlyUnread;
 
         startAdapter = new SubscriptionDrawerManager(startDrawer, onlyUnread, onlyUnreadChangeListener);
         endAdapter = new FolderDrawerManager(endDrawer);
@@ -82,11 +124,12 @@ public class DrawerManager {
         return state;
     }
 
-    public void setSelectedTreeItem(Realm realm, TreeItem selectedItem, boolean showOnlyUnread) {
+    public void setSelectedTreeItem(TreeItem selectedItem, boolean showOnlyUnread) {
+        this.showOnlyUnread = showOnlyUnread;
         state.setStartDrawerItem(selectedItem);
         state.setEndDrawerItem(null);
 
-        endAdapter.reload(realm, showOnlyUnread);
+        endAdapter.reload(showOnlyUnread);
     }
 
     public void reset() {
@@ -98,111 +141,194 @@ public class DrawerManager {
         state.setEndDrawerItem(selectedFeed);
     }
 
-    public void reloadAdapters(Realm realm, boolean showOnlyUnread) {
-        startAdapter.reload(realm, showOnlyUnread);
-        endAdapter.reload(realm, showOnlyUnread);
+    public void reloadAdapters(boolean showOnlyUnread) {
+        this.showOnlyUnread = showOnlyUnread;
+        startAdapter.reload(showOnlyUnread);
+        endAdapter.reload(showOnlyUnread);
+    }
+
+    /**
+     * Update the drawers whenever the shown fields of feeds or folders change in realm, until
+     * {@link #stopListening()} is called. Changes committed together are applied once.
+     * @param realm Realm to listen to
+     */
+    public void startListening(Realm realm) {
+        stopListening();
+
+        listeningFeeds = realm.where(Feed.class).findAllAsync();
+        listeningFeeds.addChangeListener(new RealmChangeListener<RealmResults<Feed>>() {
+            @Override
+            public void onChange(RealmResults<Feed> element) {
+                scheduleReload();
+            }
+        });
+
+        listeningFolders = realm.where(Folder.class).findAllAsync();
+        listeningFolders.addChangeListener(new RealmChangeListener<RealmResults<Folder>>() {
+            @Override
+            public void onChange(RealmResults<Folder> element) {
+                scheduleReload();
+            }
+        });
+    }
+
+    public void stopListening() {
+        handler.removeCallbacks(reloadRunnable);
+
+        if(listeningFeeds != null)
+            listeningFeeds.removeChangeListeners();
+        if(listeningFolders != null)
+            listeningFolders.removeChangeListeners();
+
+        listeningFeeds = null;
+        listeningFolders = null;
+    }
+
+    private void scheduleReload() {
+        handler.removeCallbacks(reloadRunnable);
+        handler.post(reloadRunnable);
+    }
+
+    /**
+     * @return hash of the feed and folder fields shown in the drawers
+     */
+    private long getDrawerFingerprint() {
+        long fingerprint = 17;
+
+        for(int i = 0, size = listeningFeeds.size(); i < size; i++) {
+            final Feed feed = listeningFeeds.get(i);
+            final Long folderId = feed.getFolderId();
+            fingerprint = 31 * fingerprint + feed.getId();
+            fingerprint = 31 * fingerprint + hashCode(feed.getTitle());
+            fingerprint = 31 * fingerprint + hashCode(feed.getFaviconLink());
+            fingerprint = 31 * fingerprint + (folderId != null ? folderId : 0);
+            fingerprint = 31 * fingerprint + feed.getUnreadCount();
+            fingerprint = 31 * fingerprint + feed.getStarredCount();
+            fingerprint = 31 * fingerprint + (feed.isConsideredFailed() ? 1 : 0);
+        }
+
+        for(int i = 0, size = listeningFolders.size(); i < size; i++) {
+            final Folder folder = listeningFolders.get(i);
+            fingerprint = 31 * fingerprint + folder.getId();
+            fingerprint = 31 * fingerprint + hashCode(folder.getTitle());
+            fingerprint = 31 * fingerprint + folder.getUnreadCount();
+        }
+
+        return fingerprint;
+    }
+
+    private static int hashCode(@Nullable String string) {
+        return string != null ? string.hashCode() : 0;
     }
 
     /**
      * Created by daniel on 06.10.15.
      */
     public class SubscriptionDrawerManager extends BaseDrawerManager {
-        private final List<IDrawerItem> topDrawerItems = new ArrayList<>(3);
+        private final IDrawerItem onlyUnreadDrawerItem;
 
         public SubscriptionDrawerManager(Drawer drawer, boolean onlyUnread, OnCheckedChangeListener onlyUnreadChangeListener) {
-            super(drawer);
+            super(context, drawer);
 
-            topDrawerItems.add(new TreeItemDrawerItem(allUnreadFolder));
-            topDrawerItems.add(new TreeItemDrawerItem(starredFolder));
-
-            topDrawerItems.add(new SecondarySwitchDrawerItem()
+            onlyUnreadDrawerItem = new SecondarySwitchDrawerItem()
+                    .withIdentifier(ONLY_UNREAD_IDENTIFIER)
                     .withName(R.string.only_unread)
                     .withSelectable(false)
                     .withOnCheckedChangeListener(onlyUnreadChangeListener)
-                    .withChecked(onlyUnread)
-            );
+                    .withChecked(onlyUnread);
         }
 
         @Override
-        protected List<IDrawerItem> reloadDrawerItems(Realm realm, boolean showOnlyUnread) {
-            List<IDrawerItem> drawerItems = new ArrayList<>();
-
-            drawerItems.addAll(topDrawerItems);
-
-            for(IDrawerItem drawerItem: topDrawerItems) {
-                if(drawerItem.getTag() instanceof TreeItem) {
-                    TreeItem item = (TreeItem) drawerItem.getTag();
-                    int count = Queries.getCount(realm, item);
-                    if(count > 0 && drawerItem instanceof Badgeable)
-                        ((Badgeable) drawerItem).withBadge(String.valueOf(count));
-                    if (state.getStartDrawerItem().getId() == item.getId()) {
-                        drawerItem.withSetSelected(true);
-                        break;
-                    }
-                }
-            }
+        protected EntryLoader getEntryLoader(final boolean showOnlyUnread) {
+            return new EntryLoader() {
+                @Override
+                public List<Entry> load(Realm realm) {
+                    List<Entry> entries = new ArrayList<>();
 
-            final RealmResults<Folder> folders = Queries.getFolders(realm, showOnlyUnread);
-            if(folders != null) {
-                for (Folder folder : folders) {
-                    drawerItems.add(getDrawerItem(realm, folder));
-                }
-            }
+                    entries.add(new Entry(allUnreadFolder, Queries.getCount(realm, allUnreadFolder)));
+                    entries.add(new Entry(starredFolder, Queries.getCount(realm, starredFolder)));
 
-            for (Feed feed : Queries.getFeedsWithoutFolder(realm, showOnlyUnread)) {
-                drawerItems.add(getDrawerItem(realm, feed));
-            }
+                    for (Folder folder : Queries.getFolders(realm, showOnlyUnread)) {
+                        entries.add(new Entry(realm.copyFromRealm(folder), folder.getUnreadCount()));
+                    }
 
-            return drawerItems;
-        }
+                    for (Feed feed : Queries.getFeedsWithoutFolder(realm, showOnlyUnread)) {
+                        entries.add(new Entry(realm.copyFromRealm(feed, 0), feed.getUnreadCount()));
+                    }
 
-        private IDrawerItem getDrawerItem(Realm realm, TreeItem item) {
-            boolean shouldSelect;
+                    return entries;
+                }
+            };
+        }
 
-            PrimaryDrawerItem drawerItem = new TreeItemDrawerItem(item);
+        @Override
+        protected List<IDrawerItem> getDrawerItems(List<Entry> entries) {
+            List<IDrawerItem> drawerItems = new ArrayList<>(entries.size() + 1);
 
-            int count = Queries.getCount(realm, item);
+            for(Entry entry: entries) {
+                drawerItems.add(getDrawerItem(entry, isSelected(entry.item)));
 
-            if (item instanceof Feed) {
-                shouldSelect = state.isFeedSelected();
-            } else {
-                shouldSelect = !state.isFeedSelected();
+                // the switch follows the special folders
+                if(entry.item == starredFolder)
+                    drawerItems.add(onlyUnreadDrawerItem);
             }
 
-            shouldSelect = shouldSelect && state.getStartDrawerItem().getId() == item.getId();
-
-            drawerItem.withBadge(count);
+            return drawerItems;
+        }
 
-            return drawerItem.withSetSelected(shouldSelect);
+        private boolean isSelected(TreeItem item) {
+            return (item instanceof Feed) == state.isFeedSelected() && state.getStartDrawerItem().getId() == item.getId();
         }
     }
 
     public class FolderDrawerManager extends BaseDrawerManager {
         public FolderDrawerManager(Drawer drawer) {
-            super(drawer);
+            super(context, drawer);
         }
 
         @Override
-        protected List<IDrawerItem> reloadDrawerItems(Realm realm, boolean showOnlyUnread) {
-            List<Feed> feeds = Queries.getFeedsForTreeItem(realm, state.getStartDrawerItem());
-            List<IDrawerItem> drawerItems = new ArrayList<>((feeds != null ? feeds.size() : 0) + 1);
+        protected EntryLoader getEntryLoader(boolean showOnlyUnread) {
+            final TreeItem startDrawerItem = state.getStartDrawerItem();
+            final boolean feedSelected = state.isFeedSelected();
+            // special folders can be used on any thread, folders are looked up again
+            final TreeItem specialFolder = startDrawerItem instanceof Folder ? null : startDrawerItem;
+            final long folderId = startDrawerItem.getId();
+
+            return new EntryLoader() {
+                @Override
+                public List<Entry> load(Realm realm) {
+                    if (feedSelected)
+                        return Collections.emptyList();
+
+                    final TreeItem treeItem = specialFolder != null ? specialFolder : Queries.getFolder(realm, folderId);
+                    final List<Feed> feeds = treeItem != null ? Queries.getFeedsForTreeItem(realm, treeItem) : null;
+                    if (feeds == null)
+                        return Collections.emptyList();
+
+                    List<Entry> entries = new ArrayList<>(feeds.size());
+                    for (Feed feed : feeds) {
+                        entries.add(new Entry(realm.copyFromRealm(feed, 0), feed.getUnreadCount()));
+                    }
+                    return entries;
+                }
+            };
+        }
+
+        @Override
+        protected List<IDrawerItem> getDrawerItems(List<Entry> entries) {
+            List<IDrawerItem> drawerItems = new ArrayList<>(entries.size() + 1);
 
             if (state.isFeedSelected())
                 return drawerItems;
 
-            drawerItems.add(new SectionDrawerItem()
+            drawerItems.add(getDrawerItem(new SectionDrawerItem()
+                    .withIdentifier(SECTION_IDENTIFIER)
                     .withDivider(false)
-                    .withName(state.getStartDrawerItem().getTitle()));
-
-            if (feeds != null) {
-                for (Feed feed : feeds) {
-                    PrimaryDrawerItem drawerItem = new TreeItemDrawerItem(feed);
-                    drawerItem.withIdentifier(feed.getId());
-                    drawerItem.withBadge(feed.getUnreadCount());
+                    .withName(state.getStartDrawerItem().getTitle())));
 
-                    drawerItem.withSetSelected(state.getEndDrawerItem() != null && state.getEndDrawerItem().getId() == feed.getId());
-                    drawerItems.add(drawerItem);
-                }
+            for (Entry entry : entries) {
+                drawerItems.add(getDrawerItem(entry,
+                        state.getEndDrawerItem() != null && state.getEndDrawerItem().getId() == entry.item.getId()));
             }
 
             return drawerItems;
@@ -210,16 +336,23 @@ public class DrawerManager {
 
     }
 
+    /**
+     * Selected drawer items. Only the id and kind of the items are kept, Feeds and Folders are
+     * looked up again on the main Realm, so the drawer's copies are never shown as selected item.
+     */
     public class State {
-        private TreeItem startDrawerItem;
         private long startDrawerItemId;
+        private boolean startDrawerItemIsFeed;
+        /** Live item for startDrawerItemId, looked up again when it was deleted **/
+        private TreeItem startDrawerItem;
 
-        @Nullable private Feed endDrawerItem;
         @Nullable private Long endDrawerItemId;
+        @Nullable private Feed endDrawerItem;
 
         public State() {
             startDrawerItem = allUnreadFolder;
             startDrawerItemId = AllUnreadFolder.ID;
+            startDrawerItemIsFeed = false;
             endDrawerItemId = null;
             endDrawerItem = null;
         }
@@ -234,62 +367,85 @@ public class DrawerManager {
             editor.apply();
         }
 
-        public void restoreInstanceState(Realm realm, SharedPreferences preferences) {
+        public void restoreInstanceState(SharedPreferences preferences) {
             //noinspection ConstantConditions
             startDrawerItemId = Preferences.SYS_STARTDRAWERITEMID.getLong(preferences);
-            endDrawerItemId = Preferences.SYS_ENDRAWERITEM_ID.getLong(preferences);
+            startDrawerItemIsFeed = Preferences.SYS_ISFEED.getBoolean(preferences);
+            startDrawerItem = lookupStartDrawerItem();
 
+            endDrawerItemId = Preferences.SYS_ENDRAWERITEM_ID.getLong(preferences);
             if(endDrawerItemId != null && endDrawerItemId < 0)
                 endDrawerItemId = null;
-
-            boolean isFeed = Preferences.SYS_ISFEED.getBoolean(preferences);
-
-            if(startDrawerItemId == AllUnreadFolder.ID) {
-                startDrawerItem = allUnreadFolder;
-            } else if(startDrawerItemId == StarredFolder.ID) {
-                startDrawerItem = starredFolder;
-            } else {
-                if (isFeed) {
-                    startDrawerItem = Queries.getFeed(realm, startDrawerItemId);
-                } else {
-                    startDrawerItem = Queries.getFolder(realm, startDrawerItemId);
-                }
-                if(endDrawerItemId != null) {
-                    endDrawerItem = Queries.getFeed(realm, endDrawerItemId);
-                }
-            }
-
-            if(startDrawerItem == null) {
-                startDrawerItem = allUnreadFolder;
-                startDrawerItemId = AllUnreadFolder.ID;
-            }
+            endDrawerItem = null;
         }
 
         public TreeItem getStartDrawerItem() {
+            if(!isLive(startDrawerItem))
+                startDrawerItem = lookupStartDrawerItem();
             return startDrawerItem;
         }
 
         public void setStartDrawerItem(TreeItem startDrawerItem) {
-            this.startDrawerItem = startDrawerItem;
             startDrawerItemId = startDrawerItem.getId();
+            startDrawerItemIsFeed = startDrawerItem instanceof Feed;
+            this.startDrawerItem = isLive(startDrawerItem) ? startDrawerItem : lookupStartDrawerItem();
         }
 
         @Nullable
         public Feed getEndDrawerItem() {
+            if(endDrawerItemId != null && !isLive(endDrawerItem)) {
+                endDrawerItem = Queries.getFeed(realm, endDrawerItemId);
+                if(endDrawerItem == null)
+                    endDrawerItemId = null;
+            }
             return endDrawerItem;
         }
 
         public void setEndDrawerItem(@Nullable Feed endDrawerItem) {
-            this.endDrawerItem = endDrawerItem;
             endDrawerItemId = endDrawerItem != null ? endDrawerItem.getId() : null;
+            this.endDrawerItem = isLive(endDrawerItem) ? endDrawerItem : null;
         }
 
         public boolean isFeedSelected() {
-            return startDrawerItem instanceof Feed;
+            return startDrawerItemIsFeed;
         }
 
         public TreeItem getTreeItem() {
-            return endDrawerItem != null ? endDrawerItem : startDrawerItem;
+            final Feed endDrawerItem = getEndDrawerItem();
+            return endDrawerItem != null ? endDrawerItem : getStartDrawerItem();
+        }
+
+        /**
+         * @return the item for startDrawerItemId, or the unread folder if it does not exist anymore
+         */
+        private TreeItem lookupStartDrawerItem() {
+            TreeItem item;
+            if(startDrawerItemId == AllUnreadFolder.ID && !startDrawerItemIsFeed)
+                item = allUnreadFolder;
+            else if(startDrawerItemId == StarredFolder.ID && !startDrawerItemIsFeed)
+                item = starredFolder;
+            else if(startDrawerItemIsFeed)
+                item = Queries.getFeed(realm, startDrawerItemId);
+            else
+                item = Queries.getFolder(realm, startDrawerItemId);
+
+            if(item == null) {
+                item = allUnreadFolder;
+                startDrawerItemId = AllUnreadFolder.ID;
+                startDrawerItemIsFeed = false;
+            }
+            return item;
+        }
+
+        /**
+         * @return true if item is a special folder or a valid object of the main Realm
+         */
+        private boolean isLive(@Nullable TreeItem item) {
+            if(item instanceof RealmObject) {
+                final RealmObject realmObject = (RealmObject) item;
+                return realmObject.isManaged() && realmObject.isValid();
+            }
+            return item != null;
         }
     }
 }
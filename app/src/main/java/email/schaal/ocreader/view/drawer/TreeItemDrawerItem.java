@@ -20,7 +20,9 @@
 
 package email.schaal.ocreader.view.drawer;
 
+import android.content.Context;
 import android.graphics.Color;
+import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.view.View;
 import android.widget.ImageView;
@@ -30,12 +32,15 @@ import com.mikepenz.materialdrawer.holder.StringHolder;
 import com.mikepenz.materialdrawer.model.BaseViewHolder;
 import com.mikepenz.materialdrawer.model.PrimaryDrawerItem;
 
+import java.io.File;
+
 import email.schaal.ocreader.R;
 import email.schaal.ocreader.model.Feed;
 import email.schaal.ocreader.model.Folder;
 import email.schaal.ocreader.model.TreeIconable;
 import email.schaal.ocreader.model.TreeItem;
 import email.schaal.ocreader.util.FaviconLoader;
+import email.schaal.ocreader.util.FaviconStore;
 
 /**
  * Represents a TreeItem for display in a Drawer
@@ -43,14 +48,16 @@ import email.schaal.ocreader.util.FaviconLoader;
 public class TreeItemDrawerItem extends PrimaryDrawerItem {
     private Feed feed;
 
-    public TreeItemDrawerItem(TreeItem item) {
+    public TreeItemDrawerItem(Context context, TreeItem item) {
         if(item instanceof TreeIconable) {
             withIcon(((TreeIconable) item).getIcon());
         } else if(item instanceof Feed) {
             Feed feed = (Feed) item;
-            if(feed.getFaviconLink() != null)
-                withIcon(feed.getFaviconLink());
-            else
+            if(feed.getFaviconLink() != null) {
+                // prefer the copy stored after the last sync
+                File storedFile = FaviconStore.getStoredFile(context, feed.getFaviconLink());
+                withIcon(storedFile != null ? Uri.fromFile(storedFile).toString() : feed.getFaviconLink());
+            } else
                 withIcon(feed);
             if(feed.isConsideredFailed()) {
                 withTextColor(Color.RED);
@@ -59,10 +66,26 @@ public class TreeItemDrawerItem extends PrimaryDrawerItem {
             withIcon(R.drawable.ic_folder);
         }
         withName(item.getTitle());
+        withIdentifier(getIdentifier(item));
         withTag(item);
         withIconTintingEnabled(true);
     }
 
+    /**
+     * Get the identifier of the drawer item for item, unique across feeds, folders and the
+     * special folders with negative ids
+     * @param item TreeItem to get the identifier for
+     * @return identifier of the drawer item
+     */
+    public static long getIdentifier(TreeItem item) {
+        if(item instanceof Feed)
+            return item.getId() << 1;
+        else if(item instanceof Folder)
+            return (item.getId() << 1) | 1;
+        else
+            return item.getId();
+    }
+
     @Override
     protected void bindViewHelper(BaseViewHolder viewHolder) {
         super.bindViewHelper(viewHolder);
@@ -0,0 +1,71 @@
+package email.schaal.ocreader;
+
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import email.schaal.ocreader.util.ArticleSanitizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for ArticleSanitizer and the iframe rewrite rules
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.M, application = TestApplication.class)
+public class ArticleSanitizerTest {
+
+    @Test
+    public void testScriptsRemoved() throws Exception {
+        String sanitized = ArticleSanitizer.sanitize("<p>Text</p><script>alert('test');</script>");
+
+        assertEquals("<p>Text</p>", sanitized);
+        assertEquals("", ArticleSanitizer.sanitize(null));
+    }
+
+    @Test
+    public void testYoutubeIframe() throws Exception {
+        String[] sources = {
+                "https://www.youtube.com/embed/abc-_1?autoplay=1",
+                "https://youtube.com/embed/abc-_1",
+                "https://www.youtube-nocookie.com/embed/abc-_1",
+                "//www.youtube.com/embed/abc-_1"
+        };
+
+        for(String src: sources) {
+            String sanitized = ArticleSanitizer.sanitize("<iframe src=\"" + src + "\"></iframe>");
+
+            assertFalse(sanitized.contains("iframe"));
+            assertTrue(sanitized, sanitized.contains("<a href=\"https://youtu.be/abc-_1\">"));
+            assertTrue(sanitized, sanitized.contains("src=\"https://img.youtube.com/vi/abc-_1/sddefault.jpg\""));
+            assertTrue(sanitized, sanitized.contains("<span class=\"play\">▶</span>"));
+        }
+    }
+
+    @Test
+    public void testVimeoIframe() throws Exception {
+        String sanitized = ArticleSanitizer.sanitize("<iframe src=\"http://player.vimeo.com/video/12345\"></iframe>");
+
+        assertEquals("<a href=\"http://vimeo.com/12345\">http://vimeo.com/12345</a>", sanitized);
+    }
+
+    @Test
+    public void testUnknownIframe() throws Exception {
+        String src = "https://example.com/embed/12345";
+
+        assertEquals("<a href=\"" + src + "\">" + src + "</a>",
+                ArticleSanitizer.sanitize("<iframe src=\"" + src + "\"></iframe>"));
+
+        // known host, but unknown path
+        src = "https://www.youtube.com/watch";
+        assertEquals("<a href=\"" + src + "\">" + src + "</a>",
+                ArticleSanitizer.sanitize("<iframe src=\"" + src + "\"></iframe>"));
+
+        assertEquals("", ArticleSanitizer.sanitize("<iframe></iframe>"));
+    }
+}
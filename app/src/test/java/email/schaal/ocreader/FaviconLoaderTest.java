@@ -1,6 +1,7 @@
 package email.schaal.ocreader;
 
 import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
 import android.os.Build;
 import android.support.v4.content.ContextCompat;
 import android.util.Pair;
@@ -16,9 +17,12 @@ import java.util.List;
 
 import email.schaal.ocreader.model.Feed;
 import email.schaal.ocreader.util.FaviconLoader;
-import email.schaal.ocreader.util.TextDrawable;
+import email.schaal.ocreader.util.ImageCache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -47,7 +51,19 @@ public class FaviconLoaderTest {
         feed.setUrl("http://example.com");
         feed.setFaviconLink(null);
 
-        assertTrue(FaviconLoader.getDrawable(RuntimeEnvironment.application, feed) instanceof TextDrawable);
+        ImageCache.init(RuntimeEnvironment.application);
+
+        // letter avatars are rendered to bitmaps
+        assertTrue(FaviconLoader.getDrawable(RuntimeEnvironment.application, feed) instanceof BitmapDrawable);
+        // the bitmap is reused for the same letter and color, the drawable is not shared between views
+        BitmapDrawable first = (BitmapDrawable) FaviconLoader.getDrawable(RuntimeEnvironment.application, feed);
+        BitmapDrawable second = (BitmapDrawable) FaviconLoader.getDrawable(RuntimeEnvironment.application, feed);
+        assertNotSame(first, second);
+        assertSame(first.getBitmap(), second.getBitmap());
+
+        // feeds without title get the default icon
+        feed.setTitle("");
+        assertFalse(FaviconLoader.getDrawable(RuntimeEnvironment.application, feed) instanceof BitmapDrawable);
         assertEquals(ContextCompat.getDrawable(RuntimeEnvironment.application, R.drawable.ic_feed_icon), FaviconLoader.getDrawable(RuntimeEnvironment.application, null));
 
         // TODO: 01.08.16 Test feed with favicon
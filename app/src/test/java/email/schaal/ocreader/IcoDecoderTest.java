@@ -0,0 +1,91 @@
+package email.schaal.ocreader;
+
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.List;
+
+import email.schaal.ocreader.util.IcoDecoder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the directory parsing and image selection of IcoDecoder
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.M, application = TestApplication.class)
+public class IcoDecoderTest {
+    private static final int IMAGE_SIZE = 4;
+
+    /**
+     * Build an ico file with one dummy image per size, 256 pixel images are stored as size 0
+     */
+    private static byte[] createIco(int[] sizes, int[] bitCounts) {
+        final int count = sizes.length;
+        final int dataStart = 6 + count * 16;
+        byte[] data = new byte[dataStart + count * IMAGE_SIZE];
+
+        data[2] = 1;
+        data[4] = (byte) count;
+
+        for(int i = 0; i < count; i++) {
+            int position = 6 + i * 16;
+            data[position] = (byte) (sizes[i] == 256 ? 0 : sizes[i]);
+            data[position + 1] = data[position];
+            data[position + 6] = (byte) bitCounts[i];
+            data[position + 8] = IMAGE_SIZE;
+            data[position + 12] = (byte) (dataStart + i * IMAGE_SIZE);
+        }
+
+        return data;
+    }
+
+    @Test
+    public void testReadDirectory() throws Exception {
+        List<IcoDecoder.Entry> entries = IcoDecoder.readDirectory(createIco(new int[] { 16, 256 }, new int[] { 8, 32 }));
+
+        assertEquals(2, entries.size());
+
+        assertEquals(16, entries.get(0).width);
+        assertEquals(16, entries.get(0).height);
+        assertEquals(8, entries.get(0).bitCount);
+        assertEquals(IMAGE_SIZE, entries.get(0).size);
+        assertEquals(6 + 2 * 16, entries.get(0).offset);
+
+        assertEquals(256, entries.get(1).width);
+        assertEquals(32, entries.get(1).bitCount);
+        assertEquals(6 + 2 * 16 + IMAGE_SIZE, entries.get(1).offset);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadInvalid() throws Exception {
+        IcoDecoder.readDirectory(new byte[] { (byte) 0x89, 'P', 'N', 'G', 0, 0, 0, 0 });
+    }
+
+    @Test
+    public void testSelectEntry() throws Exception {
+        List<IcoDecoder.Entry> entries = IcoDecoder.readDirectory(
+                createIco(new int[] { 16, 32, 32, 256, 48 }, new int[] { 32, 8, 32, 32, 32 }));
+
+        // smallest image large enough, with the most colors
+        assertEquals(2, IcoDecoder.selectEntry(entries, 24).index);
+        assertEquals(4, IcoDecoder.selectEntry(entries, 48).index);
+
+        // largest image if none is large enough or no size is requested
+        assertEquals(3, IcoDecoder.selectEntry(entries, 512).index);
+        assertEquals(3, IcoDecoder.selectEntry(entries, 0).index);
+    }
+
+    @Test
+    public void testGetSampleSize() throws Exception {
+        assertEquals(1, IcoDecoder.getSampleSize(256, 0));
+        assertEquals(1, IcoDecoder.getSampleSize(32, 24));
+        assertEquals(8, IcoDecoder.getSampleSize(256, 24));
+        assertEquals(4, IcoDecoder.getSampleSize(256, 64));
+    }
+}
@@ -0,0 +1,60 @@
+package email.schaal.ocreader;
+
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import email.schaal.ocreader.util.LongSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for LongSet
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.M, application = TestApplication.class)
+public class LongSetTest {
+
+    @Test
+    public void testAddRemove() throws Exception {
+        LongSet set = new LongSet(1);
+
+        assertTrue(set.add(5));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MAX_VALUE));
+        assertFalse(set.add(5));
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains(5));
+        assertFalse(set.contains(4));
+        assertArrayEquals(new long[] { -1, 5, Long.MAX_VALUE }, set.toArray());
+
+        assertTrue(set.remove(5));
+        assertFalse(set.remove(5));
+        assertFalse(set.contains(5));
+        assertEquals(Long.MAX_VALUE, set.valueAt(1));
+
+        set.clear();
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testSetAll() throws Exception {
+        LongSet set = new LongSet();
+        set.add(42);
+
+        set.setAll(new long[] { 3, 1, 2, 3, 1 });
+        assertArrayEquals(new long[] { 1, 2, 3 }, set.toArray());
+        assertFalse(set.contains(42));
+
+        set.setAll(new long[0]);
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(7));
+    }
+}
@@ -0,0 +1,42 @@
+package email.schaal.ocreader;
+
+import android.os.Build;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import email.schaal.ocreader.service.SyncScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the interval calculation of SyncScheduler
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.M, application = TestApplication.class)
+public class SyncSchedulerTest {
+
+    @Test
+    public void testGetNextInterval() throws Exception {
+        final long interval = SyncScheduler.DEFAULT_INTERVAL;
+
+        assertTrue(SyncScheduler.getNextInterval(interval, 0) > interval);
+        assertTrue(SyncScheduler.getNextInterval(interval, 1) < interval);
+        assertTrue(SyncScheduler.getNextInterval(interval, 100) < SyncScheduler.getNextInterval(interval, 1));
+
+        assertEquals(SyncScheduler.MIN_INTERVAL, SyncScheduler.getNextInterval(SyncScheduler.MIN_INTERVAL, 100));
+        assertEquals(SyncScheduler.MAX_INTERVAL, SyncScheduler.getNextInterval(SyncScheduler.MAX_INTERVAL, 0));
+    }
+
+    @Test
+    public void testGetBackoffDelay() throws Exception {
+        assertEquals(SyncScheduler.CHANGES_DELAY, SyncScheduler.getBackoffDelay(1));
+        assertEquals(2 * SyncScheduler.CHANGES_DELAY, SyncScheduler.getBackoffDelay(2));
+        assertEquals(4 * SyncScheduler.CHANGES_DELAY, SyncScheduler.getBackoffDelay(3));
+
+        assertEquals(SyncScheduler.MAX_INTERVAL, SyncScheduler.getBackoffDelay(100));
+    }
+}